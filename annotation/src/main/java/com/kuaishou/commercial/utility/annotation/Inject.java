@@ -0,0 +1,16 @@
+package com.kuaishou.commercial.utility.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记在InjectFactory实现类的构造函数上时，参数必须是Service接口，由生成的factory从ServiceManager获取后传入；
+ * 标记在字段上时，字段类型为Service接口或Lazy&lt;Service接口&gt;，由生成的Xxx_Injector.inject一次性赋值，
+ * 字段不能是private、static或final。保留到class文件，增量编译时从class文件读取的父类和依赖仍能被识别。
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.CONSTRUCTOR, ElementType.FIELD})
+public @interface Inject {
+}
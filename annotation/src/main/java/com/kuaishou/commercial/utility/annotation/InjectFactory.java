@@ -5,12 +5,74 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
-@Retention(RetentionPolicy.SOURCE)
+/**
+ * 保留到class文件，增量编译时未修改的实现类从class文件读取，processor仍能看到注解
+ */
+@Retention(RetentionPolicy.CLASS)
 @Target({ElementType.TYPE})
 public @interface InjectFactory {
+  /**
+   * 单例，强引用持有
+   */
+  int SCOPE_SINGLETON = 0;
+  /**
+   * 每次get都创建新实例
+   */
+  int SCOPE_PROTOTYPE = 1;
+  /**
+   * 每个线程一个实例
+   */
+  int SCOPE_THREAD_LOCAL = 2;
+  /**
+   * 弱引用缓存，被GC回收后重新创建
+   */
+  int SCOPE_WEAK = 3;
+  /**
+   * 软引用缓存，内存不足被回收后重新创建
+   */
+  int SCOPE_SOFT = 4;
+
+  /**
+   * 首次使用时才创建，默认值
+   */
+  int PRELOAD_NONE = 0;
+  /**
+   * ServiceManager.init后立即在后台创建
+   */
+  int PRELOAD_EAGER = 1;
+  /**
+   * ServiceManager.init后主线程首次空闲时在后台创建
+   */
+  int PRELOAD_IDLE = 2;
+
   /**
    * 优先级
    * NOTE: priority值越大优先级越高
    */
   int priority() default 0;
+
+  /**
+   * 实例的缓存范围，SCOPE_*之一
+   */
+  int scope() default SCOPE_SINGLETON;
+
+  /**
+   * 注册到多绑定，同一接口的所有实现通过ServiceManager.getAll获取，不参与ServiceManager.get
+   */
+  boolean intoSet() default false;
+
+  /**
+   * 构造较慢的service，只应通过ServiceManager.getAsync获取，在主线程同步get时会上报告警
+   */
+  boolean asyncOnly() default false;
+
+  /**
+   * 预创建的时机，PRELOAD_*之一，只对非多绑定的单例生效
+   */
+  int preload() default PRELOAD_NONE;
+
+  /**
+   * 预创建的顺序，值越大越先创建，相同时按注册顺序
+   */
+  int preloadPriority() default 0;
 }
\ No newline at end of file
@@ -3,9 +3,13 @@ package com.kwaishou.ad.ioc;
 import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.kuaishou.commercial.utility.ioc.Lazy;
 import com.kuaishou.commercial.utility.ioc.ServiceManager;
 
 public class MainActivity extends AppCompatActivity {
+  //点击时直接从句柄获取，不需要每次查找注册表
+  private final Lazy<KCLogService> mLogService = ServiceManager.lazy(KCLogService.class);
+  private final Lazy<KCToastService> mToastService = ServiceManager.lazy(KCToastService.class);
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -14,9 +18,9 @@ public class MainActivity extends AppCompatActivity {
     registerService();
     findViewById(R.id.show).setOnClickListener(v -> {
       //noinspection ConstantConditions
-      ServiceManager.get(KCLogService.class).logMessage("点击了");
+      mLogService.get().logMessage("点击了");
       //noinspection ConstantConditions
-      ServiceManager.get(KCToastService.class).toast("点击了");
+      mToastService.get().toast("点击了");
     });
   }
 
@@ -0,0 +1,113 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * 模块内service的依赖图，节点是服务接口，边来自@Inject构造函数的参数。
+ * 依赖其他模块的service时，该依赖不在图中，无法检查跨模块的环。
+ */
+public class DependencyGraph {
+  private static final int UNVISITED = 0;
+  private static final int VISITING = 1;
+  private static final int VISITED = 2;
+
+  // 按名字排序，保证生成的顺序稳定
+  private final Map<String, Set<String>> mEdges = new TreeMap<>();
+  private final Map<String, TypeElement> mNodes = new HashMap<>();
+  // 报错时定位到的实现类
+  private final Map<String, TypeElement> mImplementations = new HashMap<>();
+
+  public void addService(TypeElement serviceInterface, TypeElement implementation,
+      List<TypeElement> dependencies) {
+    String name = serviceInterface.getQualifiedName().toString();
+    mNodes.put(name, serviceInterface);
+    mImplementations.put(name, implementation);
+    Set<String> edges = mEdges.get(name);
+    if (edges == null) {
+      edges = new TreeSet<>();
+      mEdges.put(name, edges);
+    }
+    for (TypeElement dependency : dependencies) {
+      edges.add(dependency.getQualifiedName().toString());
+    }
+  }
+
+  public TypeElement getImplementation(String serviceName) {
+    return mImplementations.get(serviceName);
+  }
+
+  /**
+   * @return 第一个环，首尾是同一个接口，没有环时返回null
+   */
+  public List<String> findCycle() {
+    Map<String, Integer> states = new HashMap<>();
+    List<String> path = new ArrayList<>();
+    for (String node : mEdges.keySet()) {
+      List<String> cycle = findCycle(node, states, path);
+      if (cycle != null) {
+        return cycle;
+      }
+    }
+    return null;
+  }
+
+  private List<String> findCycle(String node, Map<String, Integer> states, List<String> path) {
+    Integer state = states.get(node);
+    if (state != null && state == VISITED) {
+      return null;
+    }
+    if (state != null && state == VISITING) {
+      List<String> cycle = new ArrayList<>(path.subList(path.indexOf(node), path.size()));
+      cycle.add(node);
+      return cycle;
+    }
+    states.put(node, VISITING);
+    path.add(node);
+    Set<String> edges = mEdges.get(node);
+    if (edges != null) {
+      for (String dependency : edges) {
+        if (mEdges.containsKey(dependency)) {
+          List<String> cycle = findCycle(dependency, states, path);
+          if (cycle != null) {
+            return cycle;
+          }
+        }
+      }
+    }
+    path.remove(path.size() - 1);
+    states.put(node, VISITED);
+    return null;
+  }
+
+  /**
+   * 依赖在前的拓扑序，需先确认{@link #findCycle()}为null
+   */
+  public List<TypeElement> topologicalOrder() {
+    Map<String, Integer> states = new HashMap<>();
+    List<TypeElement> order = new ArrayList<>();
+    for (String node : mEdges.keySet()) {
+      visit(node, states, order);
+    }
+    return order;
+  }
+
+  private void visit(String node, Map<String, Integer> states, List<TypeElement> order) {
+    if (states.containsKey(node)) {
+      return;
+    }
+    states.put(node, VISITED);
+    for (String dependency : mEdges.get(node)) {
+      if (mEdges.containsKey(dependency)) {
+        visit(dependency, states, order);
+      }
+    }
+    order.add(mNodes.get(node));
+  }
+}
@@ -1,19 +1,45 @@
 package com.kuaishou.commercial.utility.compiler;
 
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
 
+import com.kuaishou.commercial.utility.annotation.Inject;
+import com.kuaishou.commercial.utility.annotation.InjectFactory;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
 public class FactoryClassCreatorProxy {
+  private static final ClassName SERVICE_MANAGER =
+      ClassName.get("com.kuaishou.commercial.utility.ioc", "ServiceManager");
+  private static final ClassName SCOPE =
+      ClassName.get("com.kuaishou.commercial.utility.ioc.core", "Scope");
+  // 与注解中SCOPE_*的取值一一对应
+  private static final String[] SCOPE_NAMES =
+      {"SINGLETON", "PROTOTYPE", "THREAD_LOCAL", "WEAK", "SOFT"};
 
   private final String mBindingClassName;
   private final TypeElement mTypeElement;
   private final String mClassName;
+  // 服务接口的空实现，没有时不生成newStub
+  private ClassName mStubClassName;
+  // @Inject构造函数的参数，按参数顺序
+  private final List<TypeElement> mDependencies = new ArrayList<>();
 
   public FactoryClassCreatorProxy(TypeElement classElement) {
     this.mTypeElement = classElement;
@@ -21,10 +47,70 @@ public class FactoryClassCreatorProxy {
     this.mBindingClassName = mClassName + "Factory";
   }
 
+  /**
+   * 生成的factory类名，register按此引用factory
+   */
+  public static ClassName factoryClassName(String packageName, TypeElement classElement) {
+    return ClassName.get(packageName, classElement.getSimpleName() + "Factory");
+  }
+
   public TypeElement getTypeElement() {
     return mTypeElement;
   }
 
+  public void setStubClassName(ClassName stubClassName) {
+    mStubClassName = stubClassName;
+  }
+
+  public List<TypeElement> getDependencies() {
+    return mDependencies;
+  }
+
+  /**
+   * 解析@Inject构造函数的参数，没有@Inject时使用无参构造函数
+   *
+   * @param messager 为null时只解析不报错
+   * @return 是否合法，不合法时已报错
+   */
+  public boolean collectDependencies(Elements elementUtils, Types typeUtils, Messager messager) {
+    ExecutableElement injectConstructor = null;
+    for (Element enclosed : mTypeElement.getEnclosedElements()) {
+      if (enclosed.getKind() != ElementKind.CONSTRUCTOR
+          || enclosed.getAnnotation(Inject.class) == null) {
+        continue;
+      }
+      if (injectConstructor != null) {
+        error(messager, "only one @Inject constructor allowed", enclosed);
+        return false;
+      }
+      injectConstructor = (ExecutableElement) enclosed;
+    }
+    if (injectConstructor == null) {
+      return true;
+    }
+    // factory生成在模块包下，只能调用public构造函数
+    if (!injectConstructor.getModifiers().contains(Modifier.PUBLIC)) {
+      error(messager, "@Inject constructor must be public", injectConstructor);
+      return false;
+    }
+    for (VariableElement parameter : injectConstructor.getParameters()) {
+      if (parameter.asType().getKind() != TypeKind.DECLARED
+          || !Utils.isService(parameter, elementUtils, typeUtils)) {
+        error(messager, "@Inject parameter must be a Service interface: " + parameter.asType(),
+            parameter);
+        return false;
+      }
+      mDependencies.add((TypeElement) ((DeclaredType) parameter.asType()).asElement());
+    }
+    return true;
+  }
+
+  private static void error(Messager messager, String message, Element element) {
+    if (messager != null) {
+      messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+  }
+
   /**
    * 创建Java代码
    *
@@ -32,11 +118,73 @@ public class FactoryClassCreatorProxy {
    */
   public TypeSpec generateJavaCode() {
     TypeName serviceInterface = Utils.getServiceInterface(mTypeElement);
-    return TypeSpec.classBuilder(mBindingClassName)
+    TypeSpec.Builder builder = TypeSpec.classBuilder(mBindingClassName)
+        .addOriginatingElement(mTypeElement)
         .addModifiers(Modifier.PUBLIC)
         .superclass(ParameterizedTypeName.get(ClassName.get("com.kuaishou.commercial.utility.ioc.core","Factory"),
             serviceInterface))
-        .addMethod(generateMethods())
+        .addMethod(generateMethods());
+    if (mStubClassName != null) {
+      builder.addMethod(generateStubMethod(serviceInterface));
+    }
+    int scope = getScope();
+    if (scope != InjectFactory.SCOPE_SINGLETON) {
+      builder.addMethod(generateScopeMethod(scope));
+    }
+    if (mTypeElement.getAnnotation(InjectFactory.class).asyncOnly()) {
+      builder.addMethod(generateAsyncOnlyMethod());
+    }
+    return builder.build();
+  }
+
+  /**
+   * 注解中的scope，非法值在process时已报错
+   */
+  public int getScope() {
+    return mTypeElement.getAnnotation(InjectFactory.class).scope();
+  }
+
+  public static boolean isValidScope(int scope) {
+    return scope >= 0 && scope < SCOPE_NAMES.length;
+  }
+
+  public static boolean isValidPreload(int preload) {
+    return preload >= InjectFactory.PRELOAD_NONE && preload <= InjectFactory.PRELOAD_IDLE;
+  }
+
+  /**
+   * 非默认scope时覆写scope()
+   */
+  private MethodSpec generateScopeMethod(int scope) {
+    return MethodSpec.methodBuilder("scope")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PROTECTED)
+        .returns(int.class)
+        .addStatement("return $T.$L", SCOPE, SCOPE_NAMES[scope])
+        .build();
+  }
+
+  /**
+   * asyncOnly的service覆写asyncOnly()，主线程同步get时运行期上报
+   */
+  private MethodSpec generateAsyncOnlyMethod() {
+    return MethodSpec.methodBuilder("asyncOnly")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PROTECTED)
+        .returns(boolean.class)
+        .addStatement("return true")
+        .build();
+  }
+
+  /**
+   * newInstance返回null时返回生成的空实现单例
+   */
+  private MethodSpec generateStubMethod(TypeName serviceInterface) {
+    return MethodSpec.methodBuilder("newStub")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PROTECTED)
+        .returns(serviceInterface)
+        .addStatement("return $T.INSTANCE", mStubClassName)
         .build();
   }
 
@@ -47,7 +195,13 @@ public class FactoryClassCreatorProxy {
     MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("newInstance")
         .addModifiers(Modifier.PROTECTED)
         .returns(ClassName.get(mTypeElement));
-    methodBuilder.addCode("return new " + mClassName + "();");
+    CodeBlock.Builder arguments = CodeBlock.builder();
+    for (int i = 0; i < mDependencies.size(); i++) {
+      arguments.add(i == 0 ? "$T.get($T.class)" : ", $T.get($T.class)", SERVICE_MANAGER,
+          ClassName.get(mDependencies.get(i)));
+    }
+    methodBuilder.addStatement("return new $T($L)", ClassName.get(mTypeElement),
+        arguments.build());
     return methodBuilder.build();
   }
 }
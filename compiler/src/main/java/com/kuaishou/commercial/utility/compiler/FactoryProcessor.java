@@ -0,0 +1,168 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+import com.google.auto.service.AutoService;
+import com.kuaishou.commercial.utility.annotation.Inject;
+import com.kuaishou.commercial.utility.annotation.InjectFactory;
+import com.squareup.javapoet.JavaFile;
+
+/**
+ * 为每个@InjectFactory实现类生成XxxFactory，为含有@Inject字段的类生成Xxx_Injector。
+ * 每个生成的文件只依赖一个注解类，在Gradle中声明为isolating，修改一个实现类只重新生成它自己的文件；
+ * register和空实现由{@link InjectionProcessor}汇总生成
+ */
+@AutoService(Processor.class)  //自动注册
+public class FactoryProcessor extends AbstractProcessor {
+  private Messager mMessager;
+  private Elements mElementUtils;
+  private Types mTypeUtils;
+  private String mModulePackageName = Utils.DEFAULT_MODULE_PACKAGE;
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    String moduleName = Utils.getModulePackageName(processingEnv.getOptions());
+    if (moduleName != null) {
+      mModulePackageName = moduleName;
+    }
+    mMessager = processingEnv.getMessager();
+    mElementUtils = processingEnv.getElementUtils();
+    mTypeUtils = processingEnv.getTypeUtils();
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    HashSet<String> supportTypes = new LinkedHashSet<>();
+    supportTypes.add(InjectFactory.class.getCanonicalName());
+    supportTypes.add(Inject.class.getCanonicalName());
+    return supportTypes;
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    HashSet<String> options = new LinkedHashSet<>();
+    options.add(Utils.OPTION_MODULE_NAME);
+    return options;
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  /**
+   * 每个注解类只会在它作为根元素的那一轮出现，各轮只处理本轮的元素
+   *
+   * @return false，不独占注解，InjectionProcessor同样需要处理
+   */
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    generateInjectors(roundEnv);
+    for (Element element : roundEnv.getElementsAnnotatedWith(InjectFactory.class)) {
+      if (!(element instanceof TypeElement)) {
+        continue;
+      }
+      TypeElement classElement = (TypeElement) element;
+      InjectFactory injectFactory = classElement.getAnnotation(InjectFactory.class);
+      int scope = injectFactory.scope();
+      if (!FactoryClassCreatorProxy.isValidScope(scope)) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, "illegal scope: " + scope, element);
+        continue;
+      }
+      int preload = injectFactory.preload();
+      if (!FactoryClassCreatorProxy.isValidPreload(preload)) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, "illegal preload: " + preload, element);
+        continue;
+      }
+      if (preload != InjectFactory.PRELOAD_NONE && injectFactory.intoSet()) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, "preload is not supported for intoSet",
+            element);
+        continue;
+      }
+      FactoryClassCreatorProxy factoryProxy = new FactoryClassCreatorProxy(classElement);
+      if (!factoryProxy.collectDependencies(mElementUtils, mTypeUtils, mMessager)) {
+        continue;
+      }
+      TypeElement serviceElement = Utils.getServiceInterfaceElement(classElement);
+      if (serviceElement != null) {
+        //空实现由InjectionProcessor生成，这里只引用类名
+        factoryProxy.setStubClassName(
+            StubClassCreatorProxy.stubClassName(mModulePackageName, serviceElement));
+      }
+      try {
+        //生成Factory文件
+        JavaFile.builder(mModulePackageName, factoryProxy.generateJavaCode()).build()
+            .writeTo(processingEnv.getFiler());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 按类收集@Inject字段，每个类生成一个Xxx_Injector
+   */
+  private void generateInjectors(RoundEnvironment roundEnv) {
+    Map<String, InjectorClassCreatorProxy> injectorProxyMap = new LinkedHashMap<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(Inject.class)) {
+      if (element.getKind() != ElementKind.FIELD) {
+        continue;
+      }
+      VariableElement field = (VariableElement) element;
+      if (!InjectorClassCreatorProxy.checkField(field, mElementUtils, mTypeUtils, mMessager)) {
+        continue;
+      }
+      TypeElement typeElement = (TypeElement) field.getEnclosingElement();
+      String name = typeElement.getQualifiedName().toString();
+      InjectorClassCreatorProxy injectorProxy = injectorProxyMap.get(name);
+      if (injectorProxy == null) {
+        injectorProxy = new InjectorClassCreatorProxy(typeElement);
+        injectorProxyMap.put(name, injectorProxy);
+      }
+      injectorProxy.addField(field);
+    }
+    for (InjectorClassCreatorProxy injectorProxy : injectorProxyMap.values()) {
+      //父类有@Inject字段时先注入父类的字段，父类不要求在同一轮或同一模块
+      TypeMirror superType = injectorProxy.getTypeElement().getSuperclass();
+      while (superType.getKind() == TypeKind.DECLARED) {
+        TypeElement superElement = (TypeElement) ((DeclaredType) superType).asElement();
+        if (InjectorClassCreatorProxy.hasInjectFields(superElement)) {
+          injectorProxy.setSuperInjector(
+              InjectorClassCreatorProxy.getInjectorClassName(superElement));
+          break;
+        }
+        superType = superElement.getSuperclass();
+      }
+      try {
+        JavaFile.builder(injectorProxy.getPackageName(),
+            injectorProxy.generateJavaCode(mElementUtils, mTypeUtils)).build()
+            .writeTo(processingEnv.getFiler());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -1,11 +1,15 @@
 package com.kuaishou.commercial.utility.compiler;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
@@ -14,115 +18,258 @@ import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
 
 import com.google.auto.service.AutoService;
+import com.kuaishou.commercial.utility.annotation.Inject;
 import com.kuaishou.commercial.utility.annotation.InjectFactory;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
 
+/**
+ * 汇总模块内所有@InjectFactory实现类，生成CommercialServiceRegister和服务接口的空实现，
+ * 并检查模块内的依赖环。输出依赖所有注解类，在Gradle中声明为aggregating；
+ * 各实现类的factory由{@link FactoryProcessor}生成
+ */
 @AutoService(Processor.class)  //自动注册
 public class InjectionProcessor extends AbstractProcessor {
   private Messager mMessager;
   private Elements mElementUtils;
-  //当前注解的全类名作为key
-  private final Map<String, FactoryClassCreatorProxy> mFactoryProxyMap = new HashMap<>();
-  private RegisterClassCreatorProxy registerProxy = null;
+  private Types mTypeUtils;
+  //各轮中出现的@InjectFactory实现类全类名，排序后与源文件顺序无关，生成register时重新获取element
+  private final Set<String> mFactoryElements = new TreeSet<>();
+  //已生成的空实现，跨轮去重
+  private final Set<String> mGeneratedStubs = new HashSet<>();
+  //register每个模块只能生成一次
+  private boolean mRegisterGenerated;
   //代码生成路径，module可用annotationProcessorOptions自定义
-  private String mModulePackageName = "com.kuaishou.commercial.build";
+  private String mModulePackageName = Utils.DEFAULT_MODULE_PACKAGE;
+  //延迟注册，annotationProcessorOptions中iocLazyRegister为true时开启
+  private boolean mLazyRegister;
+  //register单个方法的最大语句数，annotationProcessorOptions中iocRegisterChunkSize可配置
+  private int mRegisterChunkSize = Utils.DEFAULT_REGISTER_CHUNK_SIZE;
 
   @Override
   public synchronized void init(ProcessingEnvironment processingEnv) {
     super.init(processingEnv);
+    mMessager = processingEnv.getMessager();
+    mElementUtils = processingEnv.getElementUtils();
+    mTypeUtils = processingEnv.getTypeUtils();
     Map<String, String> options = processingEnv.getOptions();
+    String moduleName = Utils.getModulePackageName(options);
+    if (moduleName != null) {
+      mModulePackageName = moduleName;
+    } else {
+      mMessager.printMessage(Diagnostic.Kind.WARNING, Utils.OPTION_MODULE_NAME
+          + " is missing or invalid, using " + Utils.DEFAULT_MODULE_PACKAGE
+          + ", modules using the default package will generate conflicting classes");
+    }
     if (options != null) {
-      mModulePackageName = options.get("iocModuleName");
+      mLazyRegister = Boolean.parseBoolean(options.get(Utils.OPTION_LAZY_REGISTER));
     }
-    mMessager = processingEnv.getMessager();
-    mElementUtils = processingEnv.getElementUtils();
+    mRegisterChunkSize = Utils.getRegisterChunkSize(options);
   }
 
   @Override
   public Set<String> getSupportedAnnotationTypes() {
     HashSet<String> supportTypes = new LinkedHashSet<>();
     supportTypes.add(InjectFactory.class.getCanonicalName());
+    supportTypes.add(Inject.class.getCanonicalName());
     return supportTypes;
   }
 
+  @Override
+  public Set<String> getSupportedOptions() {
+    HashSet<String> options = new LinkedHashSet<>();
+    options.add(Utils.OPTION_MODULE_NAME);
+    options.add(Utils.OPTION_LAZY_REGISTER);
+    options.add(Utils.OPTION_REGISTER_CHUNK_SIZE);
+    return options;
+  }
+
   @Override
   public SourceVersion getSupportedSourceVersion() {
     return SourceVersion.latestSupported();
   }
 
+  /**
+   * 其他processor可能在后续轮次生成新的实现类，因此先跨轮收集，
+   * 在第一个没有新实现类的轮次生成register
+   *
+   * @return false，不独占注解，FactoryProcessor同样需要处理
+   */
   @Override
   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-    registerProxy = null;
     mMessager.printMessage(Diagnostic.Kind.NOTE, "processing..." + this);
-    mFactoryProxyMap.clear();
-    //得到所有的注解
-    Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(InjectFactory.class);
-
-    for (Element element : elements) {
-      if (element instanceof TypeElement) {
-        mMessager.printMessage(Diagnostic.Kind.NOTE,
-            "process element:" + ((TypeElement) element).getQualifiedName());
-
-        TypeElement classElement = (TypeElement) element;
-        String fullClassName = classElement.getQualifiedName().toString();
-        FactoryClassCreatorProxy factoryProxy = mFactoryProxyMap.get(fullClassName);
-        if (factoryProxy == null) {
-          factoryProxy = new FactoryClassCreatorProxy(classElement);
-          mFactoryProxyMap.put(fullClassName, factoryProxy);
-        }
-
-        if (registerProxy == null) {
-          registerProxy = new RegisterClassCreatorProxy();
-        }
+    boolean found = false;
+    Map<String, StubClassCreatorProxy> stubProxyMap = new HashMap<>();
+    Map<String, TypeElement> stubOrigins = new HashMap<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(InjectFactory.class)) {
+      if (!(element instanceof TypeElement)) {
+        continue;
+      }
+      TypeElement classElement = (TypeElement) element;
+      mMessager.printMessage(Diagnostic.Kind.NOTE,
+          "process element:" + classElement.getQualifiedName());
+      if (mRegisterGenerated) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR,
+            "@InjectFactory class generated after CommercialServiceRegister", element);
+        continue;
+      }
+      //非法scope和preload由FactoryProcessor报错
+      InjectFactory injectFactory = classElement.getAnnotation(InjectFactory.class);
+      if (!FactoryClassCreatorProxy.isValidScope(injectFactory.scope())
+          || !FactoryClassCreatorProxy.isValidPreload(injectFactory.preload())
+          || (injectFactory.preload() != InjectFactory.PRELOAD_NONE && injectFactory.intoSet())) {
+        continue;
+      }
+      found = true;
+      mFactoryElements.add(classElement.getQualifiedName().toString());
+      TypeElement serviceElement = Utils.getServiceInterfaceElement(classElement);
+      if (serviceElement != null) {
+        collectStub(serviceElement, stubProxyMap);
+        stubOrigins.put(serviceElement.getQualifiedName().toString(), classElement);
       }
     }
-    //通过遍历mProxyMap，创建java文件
-    for (String key : mFactoryProxyMap.keySet()) {
-      FactoryClassCreatorProxy proxyInfo = mFactoryProxyMap.get(key);
-      JavaFile javaFile = JavaFile.builder(mModulePackageName, proxyInfo
-          .generateJavaCode())
-          .build();
+
+    //生成服务接口的空实现
+    for (Map.Entry<String, StubClassCreatorProxy> entry : stubProxyMap.entrySet()) {
+      TypeSpec.Builder stub = entry.getValue().generateJavaCode().toBuilder();
+      TypeElement origin = stubOrigins.get(entry.getKey());
+      if (origin != null) {
+        stub.addOriginatingElement(origin);
+      }
       try {
-        //生成Factory文件
-        javaFile.writeTo(processingEnv.getFiler());
+        JavaFile.builder(mModulePackageName, stub.build()).build()
+            .writeTo(processingEnv.getFiler());
+        mGeneratedStubs.add(entry.getKey());
       } catch (IOException e) {
         e.printStackTrace();
       }
+    }
 
+    if (!found && !mFactoryElements.isEmpty() && !mRegisterGenerated
+        && !roundEnv.errorRaised()) {
+      mRegisterGenerated = true;
+      generateRegister();
+    }
+    return false;
+  }
 
+  private void generateRegister() {
+    List<FactoryClassCreatorProxy> factoryProxies = new ArrayList<>();
+    for (String name : mFactoryElements) {
+      TypeElement classElement = mElementUtils.getTypeElement(name);
+      if (classElement == null) {
+        continue;
+      }
+      FactoryClassCreatorProxy factoryProxy = new FactoryClassCreatorProxy(classElement);
+      //非法的@Inject构造函数由FactoryProcessor报错
+      if (factoryProxy.collectDependencies(mElementUtils, mTypeUtils, null)) {
+        factoryProxies.add(factoryProxy);
+      }
+    }
+    RegisterClassCreatorProxy registerProxy =
+        new RegisterClassCreatorProxy(mLazyRegister, mRegisterChunkSize);
+    if (!checkDependencies(factoryProxies, registerProxy)) {
+      return;
+    }
+    for (FactoryClassCreatorProxy proxyInfo : factoryProxies) {
+      TypeElement typeElement = proxyInfo.getTypeElement();
       //获取factory的classname
-      ClassName factoryClass = ClassName.get(javaFile.packageName, javaFile.typeSpec.name);
+      ClassName factoryClass =
+          FactoryClassCreatorProxy.factoryClassName(mModulePackageName, typeElement);
       mMessager.printMessage(Diagnostic.Kind.NOTE, "已生成的factory:" + factoryClass);
-      mMessager.printMessage(Diagnostic.Kind.NOTE, "key:" + key);
       //获取factory的priority
-      InjectFactory injectFactory = proxyInfo.getTypeElement().getAnnotation(InjectFactory
-          .class);
+      InjectFactory injectFactory = typeElement.getAnnotation(InjectFactory.class);
       int priority = injectFactory.priority();
       //将factory和对应的priority放到RegisterProxy中，准备生成代码
-      TypeName serviceInterface = Utils.getServiceInterface(proxyInfo.getTypeElement());
-      registerProxy.putElement(factoryClass,
-          new ServicePriorityWrap(serviceInterface, priority));
+      TypeName serviceInterface = Utils.getServiceInterface(typeElement);
+      ServicePriorityWrap wrap =
+          new ServicePriorityWrap(serviceInterface, priority, injectFactory.intoSet());
+      wrap.preload = injectFactory.preload();
+      wrap.preloadPriority = injectFactory.preloadPriority();
+      registerProxy.putElement(factoryClass, wrap);
     }
 
-    if (registerProxy != null) {
-      JavaFile javaFile = JavaFile.builder(mModulePackageName, registerProxy
-          .generateJavaCode()).build();
-      try {
-        //生成文件
-        javaFile.writeTo(processingEnv.getFiler());
-      } catch (IOException e) {
-        e.printStackTrace();
+    TypeSpec.Builder register = registerProxy.generateJavaCode().toBuilder();
+    Element[] origins = new Element[factoryProxies.size()];
+    for (int i = 0; i < origins.length; i++) {
+      origins[i] = factoryProxies.get(i).getTypeElement();
+      register.addOriginatingElement(origins[i]);
+    }
+    try {
+      //生成文件
+      JavaFile.builder(mModulePackageName, register.build()).build()
+          .writeTo(processingEnv.getFiler());
+      //生成索引，transform读取索引即可发现register，不需要扫描模块的所有class
+      FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT,
+          "", RegisterClassCreatorProxy.INDEX_DIR + mModulePackageName
+              + RegisterClassCreatorProxy.INDEX_SUFFIX, origins);
+      try (Writer writer = index.openWriter()) {
+        writer.write(registerProxy.generateIndex(mModulePackageName));
       }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    mMessager.printMessage(Diagnostic.Kind.NOTE, "process finish ...");
+  }
 
-      mMessager.printMessage(Diagnostic.Kind.NOTE, "process finish ...");
+  /**
+   * 解析@Inject构造函数，检查模块内的依赖环，并把依赖在前的顺序交给register用于预热
+   *
+   * @return 是否合法，不合法时已报错
+   */
+  private boolean checkDependencies(List<FactoryClassCreatorProxy> factoryProxies,
+      RegisterClassCreatorProxy registerProxy) {
+    DependencyGraph graph = new DependencyGraph();
+    for (FactoryClassCreatorProxy proxyInfo : factoryProxies) {
+      TypeElement typeElement = proxyInfo.getTypeElement();
+      TypeElement serviceElement = Utils.getServiceInterfaceElement(typeElement);
+      if (serviceElement != null && !typeElement.getAnnotation(InjectFactory.class).intoSet()) {
+        graph.addService(serviceElement, typeElement, proxyInfo.getDependencies());
+      }
     }
+    List<String> cycle = graph.findCycle();
+    if (cycle != null) {
+      StringBuilder sb = new StringBuilder("dependency cycle: ");
+      for (int i = 0; i < cycle.size(); i++) {
+        sb.append(i == 0 ? "" : " -> ").append(cycle.get(i));
+      }
+      mMessager.printMessage(Diagnostic.Kind.ERROR, sb.toString(),
+          graph.getImplementation(cycle.get(0)));
+      return false;
+    }
+    registerProxy.setWarmUpOrder(graph.topologicalOrder());
     return true;
   }
+
+  /**
+   * 收集服务接口及其方法返回值中的Service接口，每个接口只生成一个空实现
+   */
+  private ClassName collectStub(TypeElement serviceElement,
+      Map<String, StubClassCreatorProxy> stubProxyMap) {
+    String name = serviceElement.getQualifiedName().toString();
+    if (mGeneratedStubs.contains(name)) {
+      return StubClassCreatorProxy.stubClassName(mModulePackageName, serviceElement);
+    }
+    StubClassCreatorProxy stubProxy = stubProxyMap.get(name);
+    if (stubProxy == null) {
+      stubProxy = new StubClassCreatorProxy(serviceElement, mModulePackageName, mElementUtils,
+          mTypeUtils);
+      stubProxyMap.put(name, stubProxy);
+      //提前生成一次以收集嵌套的Service接口
+      stubProxy.generateJavaCode();
+      for (TypeElement nested : stubProxy.getNestedServices()) {
+        collectStub(nested, stubProxyMap);
+      }
+    }
+    return stubProxy.getStubClassName();
+  }
 }
@@ -0,0 +1,162 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+import com.kuaishou.commercial.utility.annotation.Inject;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+/**
+ * 为含有@Inject字段的类生成Xxx_Injector，生成在目标类的包下，可以访问非private字段
+ */
+public class InjectorClassCreatorProxy {
+  private static final ClassName SERVICE_MANAGER =
+      ClassName.get("com.kuaishou.commercial.utility.ioc", "ServiceManager");
+  private static final ClassName LAZY =
+      ClassName.get("com.kuaishou.commercial.utility.ioc", "Lazy");
+
+  private final TypeElement mTypeElement;
+  private final List<VariableElement> mFields = new ArrayList<>();
+  // 父类也有@Inject字段时先调用父类的injector
+  private ClassName mSuperInjector;
+
+  public InjectorClassCreatorProxy(TypeElement typeElement) {
+    mTypeElement = typeElement;
+  }
+
+  public TypeElement getTypeElement() {
+    return mTypeElement;
+  }
+
+  public void addField(VariableElement field) {
+    mFields.add(field);
+  }
+
+  public void setSuperInjector(ClassName superInjector) {
+    mSuperInjector = superInjector;
+  }
+
+  public String getPackageName() {
+    return ClassName.get(mTypeElement).packageName();
+  }
+
+  /**
+   * 内部类的injector以外部类名加下划线命名，如Outer_Inner_Injector
+   */
+  public static ClassName getInjectorClassName(TypeElement typeElement) {
+    ClassName className = ClassName.get(typeElement);
+    StringBuilder sb = new StringBuilder();
+    for (String simpleName : className.simpleNames()) {
+      sb.append(simpleName).append('_');
+    }
+    return ClassName.get(className.packageName(), sb.append("Injector").toString());
+  }
+
+  /**
+   * 是否声明了@Inject字段，父类来自class文件时同样可以识别
+   */
+  public static boolean hasInjectFields(TypeElement typeElement) {
+    for (VariableElement field : ElementFilter.fieldsIn(typeElement.getEnclosedElements())) {
+      if (field.getAnnotation(Inject.class) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 字段必须是非private、非static、非final的Service接口或Lazy&lt;Service接口&gt;
+   *
+   * @return 是否合法，不合法时已报错
+   */
+  public static boolean checkField(VariableElement field, Elements elementUtils, Types typeUtils,
+      Messager messager) {
+    if (field.getModifiers().contains(Modifier.PRIVATE)
+        || field.getModifiers().contains(Modifier.STATIC)
+        || field.getModifiers().contains(Modifier.FINAL)) {
+      messager.printMessage(Diagnostic.Kind.ERROR,
+          "@Inject field must not be private, static or final", field);
+      return false;
+    }
+    if (getServiceType(field, elementUtils, typeUtils) == null) {
+      messager.printMessage(Diagnostic.Kind.ERROR,
+          "@Inject field must be a Service interface or Lazy<Service interface>: "
+              + field.asType(), field);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return 字段要注入的服务接口，Lazy字段返回泛型参数，不合法时返回null
+   */
+  private static TypeElement getServiceType(VariableElement field, Elements elementUtils,
+      Types typeUtils) {
+    TypeMirror type = field.asType();
+    if (isLazy(type)) {
+      List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+      if (arguments.size() != 1) {
+        return null;
+      }
+      type = arguments.get(0);
+    }
+    if (type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+    if (element.getKind() != ElementKind.INTERFACE
+        || !Utils.isService(element, elementUtils, typeUtils)) {
+      return null;
+    }
+    return element;
+  }
+
+  private static boolean isLazy(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED && ((TypeElement) ((DeclaredType) type)
+        .asElement()).getQualifiedName().contentEquals(LAZY.canonicalName());
+  }
+
+  /**
+   * 创建Java代码
+   *
+   * @return TypeSpec
+   */
+  public TypeSpec generateJavaCode(Elements elementUtils, Types typeUtils) {
+    MethodSpec.Builder injectBuilder = MethodSpec.methodBuilder("inject")
+        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+        .addParameter(ClassName.get(mTypeElement), "target");
+    if (mSuperInjector != null) {
+      injectBuilder.addStatement("$T.inject(target)", mSuperInjector);
+    }
+    for (VariableElement field : mFields) {
+      ClassName service = ClassName.get(getServiceType(field, elementUtils, typeUtils));
+      if (isLazy(field.asType())) {
+        injectBuilder.addStatement("target.$N = $T.lazy($T.class)", field.getSimpleName(),
+            SERVICE_MANAGER, service);
+      } else {
+        injectBuilder.addStatement("target.$N = $T.get($T.class)", field.getSimpleName(),
+            SERVICE_MANAGER, service);
+      }
+    }
+    return TypeSpec.classBuilder(getInjectorClassName(mTypeElement))
+        .addOriginatingElement(mTypeElement)
+        .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+        .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build())
+        .addMethod(injectBuilder.build())
+        .build();
+  }
+}
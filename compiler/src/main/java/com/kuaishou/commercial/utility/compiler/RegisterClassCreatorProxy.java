@@ -1,20 +1,65 @@
 package com.kuaishou.commercial.utility.compiler;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import com.kuaishou.commercial.utility.annotation.InjectFactory;
+import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
 
 public class RegisterClassCreatorProxy {
 
-  private final Map<ClassName, ServicePriorityWrap> mFactoryMap = new HashMap<>();
+  private static final ClassName SERVICE_MANAGER =
+      ClassName.get("com.kuaishou.commercial.utility.ioc", "ServiceManager");
+  private static final ClassName FACTORY =
+      ClassName.get("com.kuaishou.commercial.utility.ioc.core", "Factory");
+  private static final ClassName FACTORY_PROVIDER =
+      ClassName.get("com.kuaishou.commercial.utility.ioc.core", "FactoryProvider");
+  private static final ClassName REGISTER_BINDINGS =
+      ClassName.get("com.kuaishou.commercial.utility.ioc.register", "RegisterBindings");
+  public static final String REGISTER_NAME = "CommercialServiceRegister";
+  // 索引文件目录和版本，格式变化时升级版本，transform遇到不认识的版本时退回字节码扫描
+  public static final String INDEX_DIR = "META-INF/ioc/";
+  public static final String INDEX_SUFFIX = ".idx";
+  public static final int INDEX_VERSION = 2;
+
+  // 按factory类名排序，保证相同输入生成的代码完全一致，不影响构建缓存
+  private final Map<ClassName, ServicePriorityWrap> mFactoryMap = new TreeMap<>();
+  // 延迟注册：register只记录factory的下标，首次get时才创建factory
+  private final boolean mLazy;
+  // register和getFactory单个方法最多处理的factory数，超过后拆分成多个方法
+  private final int mChunkSize;
+  // 依赖在前的预热顺序
+  private List<TypeElement> mWarmUpOrder = new ArrayList<>();
 
 
   public RegisterClassCreatorProxy() {
+    this(false);
   }
 
+  public RegisterClassCreatorProxy(boolean lazy) {
+    this(lazy, Utils.DEFAULT_REGISTER_CHUNK_SIZE);
+  }
+
+  public RegisterClassCreatorProxy(boolean lazy, int chunkSize) {
+    mLazy = lazy;
+    mChunkSize = chunkSize > 0 ? chunkSize : Utils.DEFAULT_REGISTER_CHUNK_SIZE;
+  }
+
+
+  public void setWarmUpOrder(List<TypeElement> warmUpOrder) {
+    mWarmUpOrder = warmUpOrder;
+  }
 
   public void putElement(ClassName className, ServicePriorityWrap wrap) {
     mFactoryMap.put(className, wrap);
@@ -26,27 +71,259 @@ public class RegisterClassCreatorProxy {
    * @return TypeSpec
    */
   public TypeSpec generateJavaCode() {
-    return TypeSpec.classBuilder("CommercialServiceRegister")
+    List<ClassName> factories = getFactories();
+    TypeSpec.Builder builder = TypeSpec.classBuilder(REGISTER_NAME)
         .addModifiers(Modifier.PUBLIC)
         .addSuperinterface(ClassName.get("com.kuaishou.commercial.utility.ioc","ICommercialServiceRegister"))
-        .addMethod(generateMethods())
+        .addAnnotation(generateBindings(factories))
+        .addField(generateServiceCount())
+        .addMethod(generateMethods(factories));
+    if (factories.size() > mChunkSize) {
+      for (int start = 0; start < factories.size(); start += mChunkSize) {
+        builder.addMethod(generateRegisterChunk(factories, start));
+      }
+    }
+    if (mLazy) {
+      builder.addSuperinterface(FACTORY_PROVIDER)
+          .addMethod(generateGetFactory(factories));
+      if (factories.size() > mChunkSize) {
+        for (int start = 0; start < factories.size(); start += mChunkSize) {
+          builder.addMethod(generateGetFactoryChunk(factories, start));
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * factory的顺序即延迟注册时的下标，注解、索引和register方法必须使用同一顺序
+   */
+  private List<ClassName> getFactories() {
+    return new ArrayList<>(mFactoryMap.keySet());
+  }
+
+  /**
+   * 模块的绑定索引，transform从jar中直接读取，不需要解析字节码。
+   * 每行以tab分隔，类名均为internal name：
+   * <pre>
+   * ioc-index  版本
+   * register   register类
+   * lazy       true|false
+   * binding    服务接口  factory  优先级  intoSet
+   * preload    factory  时机  预创建优先级
+   * warmup     服务接口
+   * </pre>
+   */
+  public String generateIndex(String packageName) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("ioc-index\t").append(INDEX_VERSION).append('\n');
+    sb.append("register\t").append(internalName(ClassName.get(packageName, REGISTER_NAME)))
+        .append('\n');
+    sb.append("lazy\t").append(mLazy).append('\n');
+    for (ClassName factory : getFactories()) {
+      ServicePriorityWrap wrap = mFactoryMap.get(factory);
+      sb.append("binding\t").append(internalName((ClassName) wrap.serviceClassName))
+          .append('\t').append(internalName(factory))
+          .append('\t').append(wrap.priority)
+          .append('\t').append(wrap.intoSet)
+          .append('\n');
+    }
+    for (ClassName factory : getFactories()) {
+      ServicePriorityWrap wrap = mFactoryMap.get(factory);
+      if (wrap.preload != InjectFactory.PRELOAD_NONE) {
+        sb.append("preload\t").append(internalName(factory))
+            .append('\t').append(wrap.preload)
+            .append('\t').append(wrap.preloadPriority)
+            .append('\n');
+      }
+    }
+    for (TypeElement service : mWarmUpOrder) {
+      sb.append("warmup\t").append(internalName(ClassName.get(service))).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static String internalName(ClassName className) {
+    return className.reflectionName().replace('.', '/');
+  }
+
+  /**
+   * 供transform在构建期合并各模块注册的绑定信息
+   */
+  private AnnotationSpec generateBindings(List<ClassName> factories) {
+    AnnotationSpec.Builder builder = AnnotationSpec.builder(REGISTER_BINDINGS);
+    for (ClassName factory : factories) {
+      ServicePriorityWrap wrap = mFactoryMap.get(factory);
+      builder.addMember("services", "$T.class", wrap.serviceClassName)
+          .addMember("factories", "$T.class", factory)
+          .addMember("priorities", "$L", wrap.priority)
+          .addMember("intoSet", "$L", wrap.intoSet);
+    }
+    if (factories.isEmpty()) {
+      builder.addMember("services", "{}")
+          .addMember("factories", "{}")
+          .addMember("priorities", "{}")
+          .addMember("intoSet", "{}");
+    }
+    if (hasPreload()) {
+      for (ClassName factory : factories) {
+        ServicePriorityWrap wrap = mFactoryMap.get(factory);
+        builder.addMember("preloads", "$L", wrap.preload)
+            .addMember("preloadPriorities", "$L", wrap.preloadPriority);
+      }
+    }
+    if (mLazy) {
+      builder.addMember("lazy", "true");
+    }
+    for (TypeElement service : mWarmUpOrder) {
+      builder.addMember("warmUpOrder", "$T.class", ClassName.get(service));
+    }
+    return builder.build();
+  }
+
+  /**
+   * 没有预创建时不生成preloads，与之前的生成结果保持一致
+   */
+  private boolean hasPreload() {
+    for (ServicePriorityWrap wrap : mFactoryMap.values()) {
+      if (wrap.preload != InjectFactory.PRELOAD_NONE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 模块内的service个数，注册前按此预留slot
+   */
+  private FieldSpec generateServiceCount() {
+    int count = 0;
+    for (ServicePriorityWrap wrap : mFactoryMap.values()) {
+      if (!wrap.intoSet) {
+        count++;
+      }
+    }
+    return FieldSpec.builder(int.class, "SERVICE_COUNT", Modifier.PUBLIC, Modifier.STATIC,
+        Modifier.FINAL)
+        .initializer("$L", count)
         .build();
   }
 
   /**
-   * 加入Method
+   * 加入Method，factory超过mChunkSize时register只调用各个registerN
    */
-  private MethodSpec generateMethods() {
+  private MethodSpec generateMethods(List<ClassName> factories) {
     MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("register")
         .addModifiers(Modifier.PUBLIC)
         .returns(void.class);
-    for (ClassName key : mFactoryMap.keySet()) {
-      methodBuilder
-          .addStatement("$T.register($T.class, new $T(), " + mFactoryMap.get(key).priority + ")",
-              ClassName.get("com.kuaishou.commercial.utility.ioc","ServiceManager"),
-              mFactoryMap.get(key).serviceClassName,
-              key);
+    methodBuilder.addStatement("$T.reserveSlots(SERVICE_COUNT)", SERVICE_MANAGER);
+    if (factories.size() > mChunkSize) {
+      for (int start = 0; start < factories.size(); start += mChunkSize) {
+        methodBuilder.addStatement("$L()", chunkName("register", start));
+      }
+    } else {
+      addRegisterStatements(methodBuilder, factories, 0, factories.size());
+    }
+    if (!mWarmUpOrder.isEmpty()) {
+      CodeBlock.Builder order = CodeBlock.builder();
+      for (int i = 0; i < mWarmUpOrder.size(); i++) {
+        order.add(i == 0 ? "$T.class" : ", $T.class", ClassName.get(mWarmUpOrder.get(i)));
+      }
+      methodBuilder.addStatement("$T.addWarmUpOrder(new Class<?>[] {$L})", SERVICE_MANAGER,
+          order.build());
     }
     return methodBuilder.build();
   }
+
+  /**
+   * 从start开始的mChunkSize个factory的注册
+   */
+  private MethodSpec generateRegisterChunk(List<ClassName> factories, int start) {
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(chunkName("register", start))
+        .addModifiers(Modifier.PRIVATE)
+        .returns(void.class);
+    addRegisterStatements(methodBuilder, factories, start,
+        Math.min(start + mChunkSize, factories.size()));
+    return methodBuilder.build();
+  }
+
+  private void addRegisterStatements(MethodSpec.Builder methodBuilder, List<ClassName> factories,
+      int start, int end) {
+    for (int i = start; i < end; i++) {
+      ClassName key = factories.get(i);
+      ServicePriorityWrap wrap = mFactoryMap.get(key);
+      if (mLazy) {
+        methodBuilder.addStatement("$T.$L($T.class, this, $L, $L)", SERVICE_MANAGER,
+            wrap.intoSet ? "registerLazyIntoSet" : "registerLazy", wrap.serviceClassName, i,
+            wrap.priority);
+      } else {
+        methodBuilder
+            .addStatement("$T.$L($T.class, new $T(), " + wrap.priority + ")",
+                SERVICE_MANAGER,
+                wrap.intoSet ? "registerIntoSet" : "register",
+                wrap.serviceClassName,
+                key);
+      }
+      if (wrap.preload != InjectFactory.PRELOAD_NONE) {
+        methodBuilder.addStatement("$T.addPreload($T.class, $L, $L)", SERVICE_MANAGER,
+            wrap.serviceClassName, wrap.preload, wrap.preloadPriority);
+      }
+    }
+  }
+
+  private String chunkName(String prefix, int start) {
+    return prefix + start / mChunkSize;
+  }
+
+  /**
+   * 延迟注册时按下标创建factory，factory类只在对应分支执行时才加载。
+   * factory超过mChunkSize时先按下标所在的分段分发到getFactoryN
+   */
+  private MethodSpec generateGetFactory(List<ClassName> factories) {
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("getFactory")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PUBLIC)
+        .addParameter(int.class, "index")
+        .returns(factoryType());
+    if (factories.size() > mChunkSize) {
+      methodBuilder.beginControlFlow("switch (index / $L)", mChunkSize);
+      for (int start = 0; start < factories.size(); start += mChunkSize) {
+        methodBuilder.addStatement("case $L: return $L(index)", start / mChunkSize,
+            chunkName("getFactory", start));
+      }
+      methodBuilder.addStatement("default: return null");
+      methodBuilder.endControlFlow();
+    } else {
+      addGetFactorySwitch(methodBuilder, factories, 0, factories.size());
+    }
+    return methodBuilder.build();
+  }
+
+  private MethodSpec generateGetFactoryChunk(List<ClassName> factories, int start) {
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(chunkName("getFactory", start))
+        .addModifiers(Modifier.PRIVATE)
+        .addParameter(int.class, "index")
+        .returns(factoryType());
+    addGetFactorySwitch(methodBuilder, factories, start,
+        Math.min(start + mChunkSize, factories.size()));
+    return methodBuilder.build();
+  }
+
+  /**
+   * 经Object强转是为了避免字节码校验时为检查返回值类型而提前加载所有factory类
+   */
+  private void addGetFactorySwitch(MethodSpec.Builder methodBuilder, List<ClassName> factories,
+      int start, int end) {
+    methodBuilder.beginControlFlow("switch (index)");
+    for (int i = start; i < end; i++) {
+      methodBuilder.addStatement("case $L: return ($T) (Object) new $T()", i, factoryType(),
+          factories.get(i));
+    }
+    methodBuilder.addStatement("default: return null");
+    methodBuilder.endControlFlow();
+  }
+
+  private static ParameterizedTypeName factoryType() {
+    return ParameterizedTypeName.get(FACTORY, WildcardTypeName.subtypeOf(Object.class));
+  }
 }
@@ -5,9 +5,19 @@ import com.squareup.javapoet.TypeName;
 public class ServicePriorityWrap {
   public TypeName serviceClassName;
   public int priority;
+  //注册到多绑定
+  public boolean intoSet;
+  //预创建的时机和顺序，取值与注解InjectFactory一致
+  public int preload;
+  public int preloadPriority;
 
   public ServicePriorityWrap(TypeName serviceClassName, int priority) {
+    this(serviceClassName, priority, false);
+  }
+
+  public ServicePriorityWrap(TypeName serviceClassName, int priority, boolean intoSet) {
     this.serviceClassName = serviceClassName;
     this.priority = priority;
+    this.intoSet = intoSet;
   }
 }
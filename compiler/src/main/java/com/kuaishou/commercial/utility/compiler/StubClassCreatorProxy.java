@@ -0,0 +1,169 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+
+/**
+ * 为Service接口生成空实现，factory返回null时作为降级实现，代替运行时的动态代理
+ */
+public class StubClassCreatorProxy {
+  private final TypeElement mInterfaceElement;
+  private final Elements mElementUtils;
+  private final Types mTypeUtils;
+  private final String mPackageName;
+  // 返回值为其他Service接口的方法，需要同时为这些接口生成空实现
+  private final List<TypeElement> mNestedServices = new ArrayList<>();
+
+  public StubClassCreatorProxy(TypeElement interfaceElement, String packageName,
+      Elements elementUtils, Types typeUtils) {
+    mInterfaceElement = interfaceElement;
+    mPackageName = packageName;
+    mElementUtils = elementUtils;
+    mTypeUtils = typeUtils;
+  }
+
+  public static ClassName stubClassName(String packageName, TypeElement interfaceElement) {
+    return ClassName.get(packageName,
+        String.join("_", ClassName.get(interfaceElement).simpleNames()) + "Stub");
+  }
+
+  public ClassName getStubClassName() {
+    return stubClassName(mPackageName, mInterfaceElement);
+  }
+
+  public List<TypeElement> getNestedServices() {
+    return mNestedServices;
+  }
+
+  /**
+   * 创建Java代码
+   *
+   * @return TypeSpec
+   */
+  public TypeSpec generateJavaCode() {
+    mNestedServices.clear();
+    ClassName stubClass = getStubClassName();
+    TypeSpec.Builder builder = TypeSpec.classBuilder(stubClass.simpleName())
+        .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+        .addSuperinterface(TypeName.get(mInterfaceElement.asType()))
+        .addField(generateInstanceField(stubClass))
+        .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+    //泛型接口的空实现声明同样的类型参数，方法签名中的类型变量才能解析
+    for (TypeParameterElement typeParameter : mInterfaceElement.getTypeParameters()) {
+      builder.addTypeVariable(TypeVariableName.get(typeParameter));
+    }
+    DeclaredType declaredType = (DeclaredType) mInterfaceElement.asType();
+    for (ExecutableElement method : ElementFilter.methodsIn(
+        mElementUtils.getAllMembers(mInterfaceElement))) {
+      if (!method.getModifiers().contains(Modifier.ABSTRACT)) {
+        continue;
+      }
+      MethodSpec.Builder methodBuilder =
+          MethodSpec.overriding(method, declaredType, mTypeUtils);
+      TypeMirror returnType =
+          ((ExecutableType) mTypeUtils.asMemberOf(declaredType, method)).getReturnType();
+      CodeBlock defaultValue = defaultValueOf(returnType);
+      if (defaultValue != null) {
+        methodBuilder.addStatement("return $L", defaultValue);
+      }
+      builder.addMethod(methodBuilder.build());
+    }
+    // 降级实现不可用
+    builder.addMethod(MethodSpec.methodBuilder("isAvailable")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PUBLIC)
+        .returns(TypeName.BOOLEAN)
+        .addStatement("return false")
+        .build());
+    return builder.build();
+  }
+
+  /**
+   * 单例，泛型接口的空实现不依赖类型参数，以通配符类型共享一个实例
+   */
+  private FieldSpec generateInstanceField(ClassName stubClass) {
+    int typeParameters = mInterfaceElement.getTypeParameters().size();
+    if (typeParameters == 0) {
+      return FieldSpec.builder(stubClass, "INSTANCE", Modifier.PUBLIC, Modifier.STATIC,
+          Modifier.FINAL)
+          .initializer("new $T()", stubClass)
+          .build();
+    }
+    TypeName[] wildcards = new TypeName[typeParameters];
+    Arrays.fill(wildcards, WildcardTypeName.subtypeOf(Object.class));
+    return FieldSpec.builder(ParameterizedTypeName.get(stubClass, wildcards), "INSTANCE",
+        Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+        .initializer("new $T<>()", stubClass)
+        .build();
+  }
+
+  /**
+   * @return 返回值的代码，void返回null
+   */
+  private CodeBlock defaultValueOf(TypeMirror type) {
+    switch (type.getKind()) {
+      case VOID:
+        return null;
+      case BOOLEAN:
+        return CodeBlock.of("false");
+      case BYTE:
+        return CodeBlock.of("(byte) 0");
+      case SHORT:
+        return CodeBlock.of("(short) 0");
+      case CHAR:
+        return CodeBlock.of("(char) 0");
+      case INT:
+        return CodeBlock.of("0");
+      case LONG:
+        return CodeBlock.of("0L");
+      case FLOAT:
+        return CodeBlock.of("0f");
+      case DOUBLE:
+        return CodeBlock.of("0d");
+      case DECLARED:
+        return declaredDefaultValueOf((DeclaredType) type);
+      default:
+        return CodeBlock.of("null");
+    }
+  }
+
+  private CodeBlock declaredDefaultValueOf(DeclaredType type) {
+    TypeElement element = (TypeElement) type.asElement();
+    if (String.class.getCanonicalName().equals(element.getQualifiedName().toString())) {
+      return CodeBlock.of("$S", "");
+    }
+    try {
+      return defaultValueOf(mTypeUtils.unboxedType(type));
+    } catch (IllegalArgumentException ignore) {
+      // 非装箱类型
+    }
+    if (element.getKind() == ElementKind.INTERFACE && element.getTypeParameters().isEmpty()
+        && Utils.isService(element, mElementUtils, mTypeUtils)) {
+      mNestedServices.add(element);
+      return CodeBlock.of("$T.INSTANCE", stubClassName(mPackageName, element));
+    }
+    return CodeBlock.of("null");
+  }
+}
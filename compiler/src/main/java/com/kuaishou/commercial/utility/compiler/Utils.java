@@ -1,20 +1,86 @@
 package com.kuaishou.commercial.utility.compiler;
 
 import java.util.List;
+import java.util.Map;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.TypeName;
 
 public class Utils {
+  private static final String SERVICE_PACKAGE = "com.kuaishou.commercial.utility.ioc.interfaces";
+  private static final String SERVICE_CLASS = SERVICE_PACKAGE + ".Service";
+  public static final String OPTION_MODULE_NAME = "iocModuleName";
+  public static final String OPTION_LAZY_REGISTER = "iocLazyRegister";
+  public static final String OPTION_REGISTER_CHUNK_SIZE = "iocRegisterChunkSize";
+  //register中每个方法最多的注册语句数，超过后拆分到多个方法，避免方法过大无法JIT或超过64KB
+  public static final int DEFAULT_REGISTER_CHUNK_SIZE = 200;
+  //未配置iocModuleName时的代码生成路径
+  public static final String DEFAULT_MODULE_PACKAGE = "com.kuaishou.commercial.build";
+
+  /**
+   * annotationProcessorOptions中的iocModuleName，未配置或不是合法包名时返回null
+   */
+  public static String getModulePackageName(Map<String, String> options) {
+    String name = options == null ? null : options.get(OPTION_MODULE_NAME);
+    if (name == null || !SourceVersion.isName(name)) {
+      return null;
+    }
+    return name;
+  }
+
+  /**
+   * annotationProcessorOptions中的iocRegisterChunkSize，未配置或不是正整数时使用默认值
+   */
+  public static int getRegisterChunkSize(Map<String, String> options) {
+    String value = options == null ? null : options.get(OPTION_REGISTER_CHUNK_SIZE);
+    if (value == null) {
+      return DEFAULT_REGISTER_CHUNK_SIZE;
+    }
+    try {
+      int size = Integer.parseInt(value.trim());
+      return size > 0 ? size : DEFAULT_REGISTER_CHUNK_SIZE;
+    } catch (NumberFormatException e) {
+      return DEFAULT_REGISTER_CHUNK_SIZE;
+    }
+  }
+
   public static TypeName getServiceInterface(TypeElement element) {
+    TypeElement serviceInterface = getServiceInterfaceElement(element);
+    if (serviceInterface != null) {
+      return ClassName.get(serviceInterface);
+    }
+    return ClassName.get(element);
+  }
+
+  /**
+   * @return 实现类对应的服务接口，没有时返回null
+   */
+  public static TypeElement getServiceInterfaceElement(TypeElement element) {
     List<? extends TypeMirror> typeMirrors = element.getInterfaces();
     for (TypeMirror typeMirror : typeMirrors) {
-      if (typeMirror.toString().startsWith("com.kuaishou.commercial.utility.ioc.interfaces")) {
-        return ClassName.get(typeMirror);
+      if (typeMirror.toString().startsWith(SERVICE_PACKAGE)) {
+        return (TypeElement) ((DeclaredType) typeMirror).asElement();
       }
     }
-    return ClassName.get(element);
+    return null;
+  }
+
+  /**
+   * 是否是Service的子接口
+   */
+  public static boolean isService(Element element, Elements elementUtils, Types typeUtils) {
+    TypeElement service = elementUtils.getTypeElement(SERVICE_CLASS);
+    if (service == null) {
+      return false;
+    }
+    return typeUtils.isAssignable(typeUtils.erasure(element.asType()),
+        typeUtils.erasure(service.asType()));
   }
 }
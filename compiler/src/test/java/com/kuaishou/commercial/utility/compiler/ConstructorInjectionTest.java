@@ -0,0 +1,111 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import javax.tools.JavaFileObject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @Inject构造函数生成带依赖的factory，模块内的依赖环编译报错，无环时register带依赖在前的预热顺序
+ */
+public class ConstructorInjectionTest {
+  private static final String INTERFACES = "com.kuaishou.commercial.utility.ioc.interfaces";
+  private static final String REGISTER = "com/demo/build/CommercialServiceRegister.java";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  /**
+   * @param dependencies 实现类@Inject构造函数的参数，为空时不声明构造函数
+   */
+  private static void addService(List<JavaFileObject> sources, String name,
+      String... dependencies) {
+    sources.add(ProcessorRunner.source(INTERFACES + "." + name,
+        "public interface " + name + " extends Service {}"));
+    StringBuilder parameters = new StringBuilder();
+    for (int i = 0; i < dependencies.length; i++) {
+      parameters.append(i == 0 ? "" : ", ").append(INTERFACES).append('.')
+          .append(dependencies[i]).append(" p").append(i);
+    }
+    String constructor = dependencies.length == 0 ? ""
+        : "@com.kuaishou.commercial.utility.annotation.Inject public " + name + "Impl("
+            + parameters + ") {}";
+    sources.add(ProcessorRunner.source("demo." + name + "Impl",
+        "@com.kuaishou.commercial.utility.annotation.InjectFactory public class " + name
+            + "Impl implements " + INTERFACES + "." + name + " { " + constructor + " }"));
+  }
+
+  @Test
+  public void factoryPassesDependenciesInParameterOrder() throws IOException {
+    List<JavaFileObject> sources = ProcessorRunner.frameworkSources();
+    addService(sources, "Config");
+    addService(sources, "Network", "Config");
+    addService(sources, "Account", "Network", "Config");
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), sources);
+    assertTrue(result.toString(), result.mSuccess);
+
+    String factory = result.read("com/demo/build/AccountImplFactory.java");
+    assertTrue(factory, factory.contains("return new AccountImpl("
+        + "ServiceManager.get(Network.class), ServiceManager.get(Config.class));"));
+    String noDependency = result.read("com/demo/build/ConfigImplFactory.java");
+    assertTrue(noDependency, noDependency.contains("return new ConfigImpl();"));
+  }
+
+  @Test
+  public void warmUpOrderPutsDependenciesFirst() throws IOException {
+    List<JavaFileObject> sources = ProcessorRunner.frameworkSources();
+    addService(sources, "Feed", "Account");
+    addService(sources, "Account", "Network", "Config");
+    addService(sources, "Network", "Config");
+    addService(sources, "Config");
+    addService(sources, "Standalone");
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), sources);
+    assertTrue(result.toString(), result.mSuccess);
+
+    String register = result.read(REGISTER);
+    assertTrue(register, register.contains("ServiceManager.addWarmUpOrder(new Class<?>[] {"
+        + "Config.class, Network.class, Account.class, Feed.class, Standalone.class});"));
+  }
+
+  @Test
+  public void cycleFailsWithCyclePath() throws IOException {
+    List<JavaFileObject> sources = ProcessorRunner.frameworkSources();
+    addService(sources, "Ping", "Pong");
+    addService(sources, "Pong", "Relay");
+    addService(sources, "Relay", "Ping");
+    addService(sources, "Standalone");
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), sources);
+
+    assertFalse(result.toString(), result.mSuccess);
+    List<String> errors = result.errors();
+    assertEquals(errors.toString(), 1, errors.size());
+    assertEquals("dependency cycle: " + INTERFACES + ".Ping -> " + INTERFACES + ".Pong -> "
+        + INTERFACES + ".Relay -> " + INTERFACES + ".Ping", errors.get(0));
+    assertFalse(result.file(REGISTER).exists());
+  }
+
+  @Test
+  public void nonServiceParameterFails() throws IOException {
+    List<JavaFileObject> sources = ProcessorRunner.frameworkSources();
+    sources.add(ProcessorRunner.source(INTERFACES + ".Cache",
+        "public interface Cache extends Service {}"));
+    sources.add(ProcessorRunner.source("demo.CacheImpl",
+        "@com.kuaishou.commercial.utility.annotation.InjectFactory public class CacheImpl"
+            + " implements " + INTERFACES + ".Cache {"
+            + " @com.kuaishou.commercial.utility.annotation.Inject"
+            + " public CacheImpl(String name) {} }"));
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), sources);
+
+    assertFalse(result.toString(), result.mSuccess);
+    assertEquals(result.errors().toString(), 1, result.errors().size());
+    assertTrue(result.errors().get(0),
+        result.errors().get(0).startsWith("@Inject parameter must be a Service interface"));
+  }
+}
@@ -0,0 +1,188 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.tools.JavaFileObject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @Inject字段生成Xxx_Injector，父类的字段由父类的injector注入
+ */
+public class FieldInjectionTest {
+  private static final String IOC = "com.kuaishou.commercial.utility.ioc";
+  private static final String INTERFACES = IOC + ".interfaces";
+  private static final String INJECT = "@com.kuaishou.commercial.utility.annotation.Inject ";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  /**
+   * 可运行的ServiceManager和Lazy，get从SERVICES中查找
+   */
+  private static List<JavaFileObject> runtimeSources() {
+    List<JavaFileObject> sources = new ArrayList<>();
+    sources.add(ProcessorRunner.serviceSource());
+    sources.add(ProcessorRunner.source(IOC + ".ServiceManager",
+        "import " + INTERFACES + ".Service;"
+            + " public class ServiceManager {"
+            + " public static final java.util.Map<Class<?>, Object> SERVICES ="
+            + " new java.util.HashMap<>();"
+            + " public static <T extends Service> T get(Class<T> c) {"
+            + " return c.cast(SERVICES.get(c)); }"
+            + " public static <T extends Service> Lazy<T> lazy(Class<T> c) {"
+            + " return new Lazy<>(c); } }"));
+    sources.add(ProcessorRunner.source(IOC + ".Lazy",
+        "public final class Lazy<T extends " + INTERFACES + ".Service> {"
+            + " public final Class<T> mServiceClass;"
+            + " Lazy(Class<T> serviceClass) { mServiceClass = serviceClass; } }"));
+    for (String name : new String[] {"Logger", "Tracker", "Store"}) {
+      sources.add(ProcessorRunner.source(INTERFACES + "." + name,
+          "public interface " + name + " extends Service {}"));
+    }
+    return sources;
+  }
+
+  private static List<JavaFileObject> pageSources() {
+    List<JavaFileObject> sources = runtimeSources();
+    sources.add(ProcessorRunner.source("demo.BasePage",
+        "import " + INTERFACES + ".*; import " + IOC + ".Lazy;"
+            + " public class BasePage { " + INJECT + "Logger mLogger; "
+            + INJECT + "Lazy<Tracker> mTracker; }"));
+    //中间没有@Inject字段的父类被跳过
+    sources.add(ProcessorRunner.source("demo.MiddlePage",
+        "public class MiddlePage extends BasePage { " + INTERFACES + ".Store mNotInjected; }"));
+    sources.add(ProcessorRunner.source("demo.DetailPage",
+        "public class DetailPage extends MiddlePage { " + INJECT + "protected "
+            + INTERFACES + ".Store mStore; }"));
+    //父类在其他包中，injector生成在父类的包下
+    sources.add(ProcessorRunner.source("lib.LibraryPage",
+        "public class LibraryPage { " + INJECT + "public " + INTERFACES + ".Tracker mTracker; }"));
+    sources.add(ProcessorRunner.source("demo.Outer",
+        "public class Outer { public static class Inner extends lib.LibraryPage { " + INJECT
+            + INTERFACES + ".Logger mLogger; } }"));
+    return sources;
+  }
+
+  /**
+   * 运行processor后编译源文件和生成的injector，加载编译结果
+   */
+  private ClassLoader compileInjectors(String... injectors) throws IOException {
+    ProcessorRunner.Result generated =
+        ProcessorRunner.process(mFolder.newFolder(), pageSources());
+    assertTrue(generated.toString(), generated.mSuccess);
+    List<File> files = new ArrayList<>();
+    for (String injector : injectors) {
+      File file = generated.file(injector.replace('.', '/') + ".java");
+      assertTrue(injector, file.exists());
+      files.add(file);
+    }
+    ProcessorRunner.Result compiled =
+        ProcessorRunner.compile(mFolder.newFolder(), pageSources(), files);
+    assertTrue(compiled.toString(), compiled.mSuccess);
+    return new URLClassLoader(new URL[] {compiled.mOut.toURI().toURL()},
+        getClass().getClassLoader());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object register(ClassLoader loader, String service) throws Exception {
+    Class<?> serviceClass = loader.loadClass(INTERFACES + "." + service);
+    Object instance = Proxy.newProxyInstance(loader, new Class<?>[] {serviceClass},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("isAvailable") ? Boolean.TRUE : null;
+          }
+        });
+    ((Map<Class<?>, Object>) loader.loadClass(IOC + ".ServiceManager").getField("SERVICES")
+        .get(null)).put(serviceClass, instance);
+    return instance;
+  }
+
+  private static Object inject(ClassLoader loader, String injector, String target)
+      throws Exception {
+    Class<?> targetClass = loader.loadClass(target);
+    Object instance = targetClass.getConstructor().newInstance();
+    loader.loadClass(injector).getMethod("inject", targetClass).invoke(null, instance);
+    return instance;
+  }
+
+  private static Object field(Object target, Class<?> owner, String name) throws Exception {
+    Field field = owner.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(target);
+  }
+
+  @Test
+  public void injectsOwnAndSuperFields() throws Exception {
+    ClassLoader loader = compileInjectors("demo.BasePage_Injector", "demo.DetailPage_Injector");
+    Object logger = register(loader, "Logger");
+    Object store = register(loader, "Store");
+
+    Object page = inject(loader, "demo.DetailPage_Injector", "demo.DetailPage");
+    Class<?> base = loader.loadClass("demo.BasePage");
+    assertSame(store, field(page, loader.loadClass("demo.DetailPage"), "mStore"));
+    assertSame(logger, field(page, base, "mLogger"));
+    assertNull(field(page, loader.loadClass("demo.MiddlePage"), "mNotInjected"));
+    Object lazy = field(page, base, "mTracker");
+    assertEquals(loader.loadClass(INTERFACES + ".Tracker"),
+        field(lazy, lazy.getClass(), "mServiceClass"));
+  }
+
+  @Test
+  public void nestedClassChainsToSuperInOtherPackage() throws Exception {
+    ClassLoader loader =
+        compileInjectors("lib.LibraryPage_Injector", "demo.Outer_Inner_Injector");
+    Object logger = register(loader, "Logger");
+    Object tracker = register(loader, "Tracker");
+
+    Object inner = inject(loader, "demo.Outer_Inner_Injector", "demo.Outer$Inner");
+    assertSame(logger, field(inner, loader.loadClass("demo.Outer$Inner"), "mLogger"));
+    assertSame(tracker, field(inner, loader.loadClass("lib.LibraryPage"), "mTracker"));
+  }
+
+  @Test
+  public void noInjectorWithoutInjectFields() throws IOException {
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), pageSources());
+    assertTrue(result.toString(), result.mSuccess);
+    assertFalse(result.file("demo/MiddlePage_Injector.java").exists());
+    String detail = result.read("demo/DetailPage_Injector.java");
+    assertTrue(detail, detail.contains("BasePage_Injector.inject(target);"));
+  }
+
+  @Test
+  public void illegalFieldsFail() throws IOException {
+    List<JavaFileObject> sources = runtimeSources();
+    sources.add(ProcessorRunner.source("demo.BadPage",
+        "public class BadPage { " + INJECT + "private " + INTERFACES + ".Logger mPrivate; "
+            + INJECT + "String mName; " + INJECT + "java.util.List<" + INTERFACES
+            + ".Logger> mList; }"));
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), sources);
+
+    assertFalse(result.toString(), result.mSuccess);
+    List<String> errors = result.errors();
+    assertEquals(errors.toString(), Arrays.asList(
+        "@Inject field must not be private, static or final",
+        "@Inject field must be a Service interface or Lazy<Service interface>: java.lang.String",
+        "@Inject field must be a Service interface or Lazy<Service interface>: java.util.List<"
+            + INTERFACES + ".Logger>"), errors);
+  }
+}
@@ -0,0 +1,152 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * 在内存中的源文件上运行processor，生成的文件写到指定目录，供各processor测试共用
+ */
+final class ProcessorRunner {
+  static final String MODULE = "com.demo.build";
+
+  private ProcessorRunner() {
+  }
+
+  /**
+   * 生成代码引用的框架类，compiler模块不依赖ioc-framework，只需类型存在
+   */
+  static List<JavaFileObject> frameworkSources() {
+    List<JavaFileObject> sources = new ArrayList<>();
+    sources.add(source("com.kuaishou.commercial.utility.ioc.ServiceManager",
+        "public class ServiceManager {}"));
+    sources.add(source("com.kuaishou.commercial.utility.ioc.ICommercialServiceRegister",
+        "public interface ICommercialServiceRegister { void register(); }"));
+    sources.add(source("com.kuaishou.commercial.utility.ioc.core.Factory",
+        "public abstract class Factory<T> {}"));
+    sources.add(source("com.kuaishou.commercial.utility.ioc.core.FactoryProvider",
+        "public interface FactoryProvider { Factory<?> getFactory(int index); }"));
+    sources.add(source("com.kuaishou.commercial.utility.ioc.register.RegisterBindings",
+        "public @interface RegisterBindings { Class<?>[] services(); Class<?>[] factories();"
+            + " int[] priorities(); boolean[] intoSet(); boolean lazy() default false;"
+            + " Class<?>[] warmUpOrder() default {}; }"));
+    sources.add(serviceSource());
+    return sources;
+  }
+
+  /**
+   * Service基类，空实现覆写isAvailable，单独编译空实现时需要
+   */
+  static JavaFileObject serviceSource() {
+    return source("com.kuaishou.commercial.utility.ioc.interfaces.Service",
+        "public interface Service { default boolean isAvailable() { return true; } }");
+  }
+
+  static JavaFileObject source(String qualifiedName, String body) {
+    int dot = qualifiedName.lastIndexOf('.');
+    final String code = "package " + qualifiedName.substring(0, dot) + ";\n" + body;
+    return new SimpleJavaFileObject(
+        URI.create("string:///" + qualifiedName.replace('.', '/') + ".java"),
+        JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return code;
+      }
+    };
+  }
+
+  /**
+   * 只运行processor，不编译生成的代码
+   */
+  static Result process(File out, List<JavaFileObject> sources, String... options)
+      throws IOException {
+    List<String> arguments = new ArrayList<>(Arrays.asList("-proc:only",
+        "-AiocModuleName=" + MODULE, "-classpath", System.getProperty("java.class.path")));
+    arguments.addAll(Arrays.asList(options));
+    return run(out, sources, arguments, true);
+  }
+
+  /**
+   * 不运行processor，编译sources和files，class写到out
+   */
+  static Result compile(File out, List<JavaFileObject> sources, List<File> files)
+      throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    List<JavaFileObject> units = new ArrayList<>(sources);
+    for (JavaFileObject file : fileManager.getJavaFileObjectsFromFiles(files)) {
+      units.add(file);
+    }
+    fileManager.close();
+    return run(out, units, Arrays.asList("-proc:none", "-classpath",
+        System.getProperty("java.class.path")), false);
+  }
+
+  private static Result run(File out, List<JavaFileObject> sources, List<String> arguments,
+      boolean processors) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+    fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(out));
+    fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(out));
+    JavaCompiler.CompilationTask task =
+        compiler.getTask(null, fileManager, diagnostics, arguments, null, sources);
+    if (processors) {
+      task.setProcessors(Arrays.asList(new InjectionProcessor(), new FactoryProcessor()));
+    }
+    boolean success = task.call();
+    fileManager.close();
+    return new Result(out, success, diagnostics.getDiagnostics());
+  }
+
+  static final class Result {
+    final File mOut;
+    final boolean mSuccess;
+    final List<Diagnostic<? extends JavaFileObject>> mDiagnostics;
+
+    Result(File out, boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+      mOut = out;
+      mSuccess = success;
+      mDiagnostics = diagnostics;
+    }
+
+    /**
+     * ERROR级别的诊断信息
+     */
+    List<String> errors() {
+      List<String> errors = new ArrayList<>();
+      for (Diagnostic<? extends JavaFileObject> diagnostic : mDiagnostics) {
+        if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+          errors.add(diagnostic.getMessage(null));
+        }
+      }
+      return errors;
+    }
+
+    File file(String path) {
+      return new File(mOut, path);
+    }
+
+    String read(String path) throws IOException {
+      return new String(Files.readAllBytes(file(path).toPath()), "UTF-8");
+    }
+
+    @Override
+    public String toString() {
+      return mDiagnostics.toString();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 相同输入两次编译生成的代码必须逐字节一致，源文件顺序不同也不影响
+ */
+public class ReproducibleGenerationTest {
+  private static final String REGISTER = "com/demo/build/CommercialServiceRegister.java";
+  private static final String INDEX = "META-INF/ioc/com.demo.build.idx";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private static List<JavaFileObject> sources() {
+    List<JavaFileObject> sources = ProcessorRunner.frameworkSources();
+    for (char name = 'A'; name <= 'F'; name++) {
+      sources.add(ProcessorRunner.source(
+          "com.kuaishou.commercial.utility.ioc.interfaces.Service" + name,
+          "public interface Service" + name + " extends Service {}"));
+      sources.add(ProcessorRunner.source("demo.Impl" + name,
+          "@com.kuaishou.commercial.utility.annotation.InjectFactory(priority = " + (name - 'A')
+              + ") public class Impl" + name
+              + " implements com.kuaishou.commercial.utility.ioc.interfaces.Service" + name
+              + " {}"));
+    }
+    return sources;
+  }
+
+  private File generate(List<JavaFileObject> sources, String... options) throws IOException {
+    ProcessorRunner.Result result = ProcessorRunner.process(mFolder.newFolder(), sources, options);
+    assertTrue(result.toString(), result.mSuccess);
+    return result.mOut;
+  }
+
+  @Test
+  public void sameOutputForSameInput() throws IOException {
+    List<JavaFileObject> sources = sources();
+    File first = generate(sources);
+    Collections.reverse(sources);
+    File second = generate(sources);
+
+    for (String path : new String[] {REGISTER, INDEX, "com/demo/build/ImplCFactory.java"}) {
+      assertArrayEquals(path, Files.readAllBytes(new File(first, path).toPath()),
+          Files.readAllBytes(new File(second, path).toPath()));
+    }
+  }
+
+  @Test
+  public void registerSortedByFactory() throws IOException {
+    List<JavaFileObject> sources = sources();
+    Collections.reverse(sources);
+    List<String> lines = Files.readAllLines(new File(generate(sources), INDEX).toPath());
+    List<String> factories = new ArrayList<>();
+    for (String line : lines) {
+      if (line.startsWith("binding\t")) {
+        factories.add(line.split("\t")[2]);
+      }
+    }
+    List<String> sorted = new ArrayList<>(factories);
+    Collections.sort(sorted);
+    assertEquals(6, factories.size());
+    assertEquals(sorted, factories);
+  }
+
+  @Test
+  public void splitLargeRegister() throws IOException {
+    List<JavaFileObject> sources = sources();
+    File first = generate(sources, "-AiocRegisterChunkSize=4", "-AiocLazyRegister=true");
+    Collections.reverse(sources);
+    File second = generate(sources, "-AiocRegisterChunkSize=4", "-AiocLazyRegister=true");
+    byte[] register = Files.readAllBytes(new File(first, REGISTER).toPath());
+    assertArrayEquals(register, Files.readAllBytes(new File(second, REGISTER).toPath()));
+
+    //6个factory按4个一组拆成两段，下标在各段中保持不变
+    String code = new String(register, "UTF-8");
+    assertTrue(code, code.contains("register0();") && code.contains("register1();"));
+    assertTrue(code, code.contains("private void register1()"));
+    assertTrue(code, code.contains("case 1: return getFactory1(index);"));
+    assertTrue(code, code.contains("case 5: return"));
+    assertTrue(code, !code.contains("register2"));
+  }
+}
@@ -0,0 +1,146 @@
+package com.kuaishou.commercial.utility.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.JavaFileObject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 生成的空实现可以单独编译，方法返回对应类型的零值，返回Service接口时返回该接口的空实现
+ */
+public class StubGenerationTest {
+  private static final String INTERFACES = "com.kuaishou.commercial.utility.ioc.interfaces";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private static List<JavaFileObject> interfaceSources() {
+    List<JavaFileObject> sources = new ArrayList<>();
+    sources.add(ProcessorRunner.serviceSource());
+    sources.add(ProcessorRunner.source(INTERFACES + ".ZeroService",
+        "public interface ZeroService extends Service {"
+            + " boolean bool(); byte byteValue(); short shortValue(); char charValue();"
+            + " int intValue(); long longValue(); float floatValue(); double doubleValue();"
+            + " Integer boxed(); Boolean boxedBool(); String name(); void run(); int[] array();"
+            + " java.util.List<String> list(); Holder.Inner inner();"
+            + " <R> R convert(Class<R> type); }"));
+    //成员接口，空实现类名带外部类名
+    sources.add(ProcessorRunner.source(INTERFACES + ".Holder",
+        "public interface Holder { interface Inner extends Service { long id(); } }"));
+    sources.add(ProcessorRunner.source(INTERFACES + ".GenericService",
+        "public interface GenericService<T extends Number> extends Service {"
+            + " T value(); java.util.List<T> values(); int size(); Holder.Inner inner();"
+            + " void accept(T value); }"));
+    return sources;
+  }
+
+  private static List<JavaFileObject> sources() {
+    List<JavaFileObject> sources = ProcessorRunner.frameworkSources();
+    //Service由frameworkSources提供
+    sources.addAll(interfaceSources().subList(1, interfaceSources().size()));
+    sources.add(ProcessorRunner.source("demo.ZeroImpl",
+        "@com.kuaishou.commercial.utility.annotation.InjectFactory"
+            + " public class ZeroImpl implements " + INTERFACES + ".ZeroService {}"));
+    sources.add(ProcessorRunner.source("demo.GenericImpl",
+        "@com.kuaishou.commercial.utility.annotation.InjectFactory"
+            + " public class GenericImpl implements " + INTERFACES
+            + ".GenericService<Integer> {}"));
+    return sources;
+  }
+
+  /**
+   * 运行processor后只编译接口和生成的空实现，加载编译结果
+   */
+  private ClassLoader compileStubs() throws IOException {
+    ProcessorRunner.Result generated =
+        ProcessorRunner.process(mFolder.newFolder(), sources());
+    assertTrue(generated.toString(), generated.mSuccess);
+    List<File> stubs = new ArrayList<>();
+    for (String name : new String[] {"ZeroServiceStub", "Holder_InnerStub",
+        "GenericServiceStub"}) {
+      File stub = generated.file("com/demo/build/" + name + ".java");
+      assertTrue(name, stub.exists());
+      stubs.add(stub);
+    }
+    ProcessorRunner.Result compiled =
+        ProcessorRunner.compile(mFolder.newFolder(), interfaceSources(), stubs);
+    assertTrue(compiled.toString(), compiled.mSuccess);
+    return new URLClassLoader(new URL[] {compiled.mOut.toURI().toURL()},
+        getClass().getClassLoader());
+  }
+
+  private static Object instanceOf(ClassLoader loader, String stubName) throws Exception {
+    return loader.loadClass(ProcessorRunner.MODULE + "." + stubName).getField("INSTANCE")
+        .get(null);
+  }
+
+  private static Object call(Object target, String name, Object... args) throws Exception {
+    for (Method method : target.getClass().getMethods()) {
+      if (method.getName().equals(name) && method.getParameterTypes().length == args.length) {
+        return method.invoke(target, args);
+      }
+    }
+    throw new NoSuchMethodException(name);
+  }
+
+  @Test
+  public void returnsTypedZeros() throws Exception {
+    ClassLoader loader = compileStubs();
+    Object stub = instanceOf(loader, "ZeroServiceStub");
+    assertEquals(false, call(stub, "bool"));
+    assertEquals((byte) 0, call(stub, "byteValue"));
+    assertEquals((short) 0, call(stub, "shortValue"));
+    assertEquals((char) 0, call(stub, "charValue"));
+    assertEquals(0, call(stub, "intValue"));
+    assertEquals(0L, call(stub, "longValue"));
+    assertEquals(0f, call(stub, "floatValue"));
+    assertEquals(0d, call(stub, "doubleValue"));
+    assertEquals(0, call(stub, "boxed"));
+    assertEquals(false, call(stub, "boxedBool"));
+    assertEquals("", call(stub, "name"));
+    assertNull(call(stub, "run"));
+    assertNull(call(stub, "array"));
+    assertNull(call(stub, "list"));
+    assertNull(call(stub, "convert", String.class));
+    assertEquals(false, call(stub, "isAvailable"));
+  }
+
+  @Test
+  public void nestedServiceReturnsItsStub() throws Exception {
+    ClassLoader loader = compileStubs();
+    Object inner = instanceOf(loader, "Holder_InnerStub");
+    assertSame(inner, call(instanceOf(loader, "ZeroServiceStub"), "inner"));
+    assertSame(inner, call(instanceOf(loader, "GenericServiceStub"), "inner"));
+    assertEquals(0L, call(inner, "id"));
+    assertEquals(false, call(inner, "isAvailable"));
+  }
+
+  @Test
+  public void genericServiceStubCompiles() throws Exception {
+    ClassLoader loader = compileStubs();
+    Object stub = instanceOf(loader, "GenericServiceStub");
+    assertTrue(loader.loadClass(INTERFACES + ".GenericService").isInstance(stub));
+    assertEquals(1, stub.getClass().getTypeParameters().length);
+    assertEquals(Arrays.asList(Number.class),
+        Arrays.asList(stub.getClass().getTypeParameters()[0].getBounds()));
+    assertNull(call(stub, "value"));
+    assertNull(call(stub, "values"));
+    assertEquals(0, call(stub, "size"));
+    assertFalse((Boolean) call(stub, "isAvailable"));
+  }
+}
@@ -0,0 +1,63 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kuaishou.commercial.utility.ioc.core.Scope;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 延迟获取service的句柄，通过{@link ServiceManager#lazy(Class)}获取，同一接口共享一个句柄。
+ * 首次{@link #get()}时才从ServiceManager查找，可用的单例会被缓存，之后的get只有一次volatile读。
+ * 绑定被替换或实例被回收时缓存自动失效；不可用（降级实现或null）或非单例scope时不缓存，每次重新查找。
+ */
+public final class Lazy<T extends Service> {
+  private final Class<T> mServiceClass;
+  private volatile T mInstance;
+  // 绑定变化的次数，查找期间发生变化时不缓存查到的实例
+  private volatile int mGeneration;
+
+  Lazy(@NonNull Class<T> serviceClass) {
+    mServiceClass = serviceClass;
+  }
+
+  @NonNull
+  public Class<T> getServiceClass() {
+    return mServiceClass;
+  }
+
+  @Nullable
+  public T get() {
+    T instance = mInstance;
+    if (instance != null) {
+      return instance;
+    }
+    int generation = mGeneration;
+    instance = ServiceManager.get(mServiceClass);
+    if (instance != null && instance.isAvailable()
+        && ServiceManager.sManager.getScope(mServiceClass) == Scope.SINGLETON) {
+      synchronized (this) {
+        if (generation == mGeneration) {
+          mInstance = instance;
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * 已缓存的实例，没有时返回null，不会触发查找
+   */
+  @Nullable
+  T peek() {
+    return mInstance;
+  }
+
+  /**
+   * 绑定被替换或实例被回收后调用，下次get重新查找
+   */
+  synchronized void reset() {
+    mGeneration++;
+    mInstance = null;
+  }
+}
@@ -0,0 +1,17 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * {@link ServiceManager#getAsync(Class, ServiceCallback)}的结果回调，在主线程回调
+ */
+public interface ServiceCallback<T extends Service> {
+  /**
+   * @param service 与{@link ServiceManager#get(Class)}的结果一致，构造抛出异常时为null
+   */
+  @MainThread
+  void onService(@Nullable T service);
+}
@@ -0,0 +1,108 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 一次异步构造，同时请求同一接口的调用方共享。完成后从进行中的表里移除，并在主线程依次回调
+ */
+final class ServiceFuture<T extends Service> extends FutureTask<T> {
+  private static final String TAG = "ServiceFuture";
+  // 回调所在的主线程，首次回调时创建
+  private static volatile Executor sMainExecutor;
+
+  private final Class<T> mServiceClass;
+  // 共享时所在的进行中的表，不共享时为null
+  private final ConcurrentMap<Class<?>, ServiceFuture<?>> mInFlight;
+  // 完成前注册的回调，完成时取走后置为null，受this保护
+  private List<ServiceCallback<? super T>> mCallbacks = new ArrayList<>();
+
+  ServiceFuture(Class<T> serviceClass, Callable<T> callable,
+      ConcurrentMap<Class<?>, ServiceFuture<?>> inFlight) {
+    super(callable);
+    mServiceClass = serviceClass;
+    mInFlight = inFlight;
+  }
+
+  void addCallback(ServiceCallback<? super T> callback) {
+    synchronized (this) {
+      if (mCallbacks != null) {
+        mCallbacks.add(callback);
+        return;
+      }
+    }
+    deliver(callback);
+  }
+
+  @Override
+  protected void done() {
+    if (mInFlight != null) {
+      mInFlight.remove(mServiceClass, this);
+    }
+    List<ServiceCallback<? super T>> callbacks;
+    synchronized (this) {
+      callbacks = mCallbacks;
+      mCallbacks = null;
+    }
+    for (ServiceCallback<? super T> callback : callbacks) {
+      deliver(callback);
+    }
+  }
+
+  private void deliver(final ServiceCallback<? super T> callback) {
+    mainExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        callback.onService(result());
+      }
+    });
+  }
+
+  private T result() {
+    try {
+      return get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (CancellationException e) {
+      return null;
+    } catch (ExecutionException e) {
+      Log.w(TAG, "create " + mServiceClass.getName() + " failed", e.getCause());
+      return null;
+    }
+  }
+
+  /**
+   * 仅供测试替换回调所在的主线程，传null恢复
+   */
+  static void setMainExecutor(Executor mainExecutor) {
+    sMainExecutor = mainExecutor;
+  }
+
+  private static Executor mainExecutor() {
+    Executor executor = sMainExecutor;
+    if (executor == null) {
+      final Handler handler = new Handler(Looper.getMainLooper());
+      executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          handler.post(command);
+        }
+      };
+      sMainExecutor = executor;
+    }
+    return executor;
+  }
+}
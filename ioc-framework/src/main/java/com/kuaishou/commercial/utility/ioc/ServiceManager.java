@@ -1,36 +1,82 @@
 package com.kuaishou.commercial.utility.ioc;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.kuaishou.commercial.utility.ioc.core.BindingListener;
 import com.kuaishou.commercial.utility.ioc.core.Constants;
 import com.kuaishou.commercial.utility.ioc.core.Factory;
+import com.kuaishou.commercial.utility.ioc.core.FactoryProvider;
 import com.kuaishou.commercial.utility.ioc.core.InstanceManager;
+import com.kuaishou.commercial.utility.ioc.core.Preload;
+import com.kuaishou.commercial.utility.ioc.core.RetryPolicy;
+import com.kuaishou.commercial.utility.ioc.core.Scope;
 import com.kuaishou.commercial.utility.ioc.core.ServiceProperty;
 import com.kuaishou.commercial.utility.ioc.interfaces.Service;
 import com.kuaishou.commercial.utility.ioc.register.ServiceRegisterCollection;
+import com.kuaishou.commercial.utility.ioc.util.ThreadUtils;
 
 /**
  * 接口服务的管理类，用于注册或者过去服务接口实现类的对象。
  */
 public class ServiceManager {
   public static final InstanceManager<Service> sManager = new InstanceManager<>(
-      new HashMap<>(
+      new ConcurrentHashMap<>(
           Constants.MAP_INIT_CAPACITY));
 
+  // 前台时每次trimMemory最多回收的个数，避免正在交互时集中重建
+  private static final int FOREGROUND_TRIM_MAX_COUNT = 4;
+  // 内存最紧张时的空闲时间阈值，刚使用过的service很可能仍在使用中，回收后马上又会重建
+  private static final long MIN_TRIM_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   @SuppressLint("StaticFieldLeak")
   private static Context mContext;
+  private static boolean sTrimOnLowMemory;
+  // 编译期按@Inject构造函数生成的预热顺序，依赖在前
+  private static final List<Class<? extends Service>> sWarmUpOrder = new ArrayList<>();
+  // 每个接口共享一个句柄，绑定变化时统一失效
+  private static final ConcurrentHashMap<Class<?>, Lazy<?>> sLazies = new ConcurrentHashMap<>();
+  // 进行中的异步构造，同一接口同时只有一个
+  private static final ConcurrentHashMap<Class<?>, ServiceFuture<?>> sInFlight =
+      new ConcurrentHashMap<>();
+  // 异步构造的线程池，未设置时首次getAsync创建默认线程池
+  private static volatile Executor sAsyncExecutor;
+  private static final ServicePreloader sPreloader = new ServicePreloader();
+
+  static {
+    sManager.setBindingListener(new BindingListener() {
+      @Override
+      public void onBindingChanged(Class<?> serviceClass) {
+        Lazy<?> lazy = sLazies.get(serviceClass);
+        if (lazy != null) {
+          lazy.reset();
+        }
+      }
+    });
+  }
 
   private ServiceManager() {
   }
 
+  /**
+   * 注册所有模块的service，之后按preload提示在后台预创建，可以在任意线程调用
+   */
   public static void init(@NonNull Context context) {
     mContext = context;
     ServiceRegisterCollection.register();
+    sPreloader.start(asyncExecutor());
   }
 
   @NonNull
@@ -46,6 +92,142 @@ public class ServiceManager {
     return sManager.get(serviceClass);
   }
 
+  /**
+   * 获取service的句柄，适合频繁调用的地方持有在字段中，首次get之后不再查找注册表
+   */
+  @NonNull
+  public static <T extends Service> Lazy<T> lazy(@NonNull Class<T> serviceClass) {
+    Lazy<T> lazy = cachedLazy(serviceClass);
+    if (lazy == null) {
+      sLazies.putIfAbsent(serviceClass, new Lazy<>(serviceClass));
+      lazy = cachedLazy(serviceClass);
+    }
+    return lazy;
+  }
+
+  /**
+   * sLazies中接口与Lazy的类型由lazy(Class)保证一致，且不会移除
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private static <T extends Service> Lazy<T> cachedLazy(Class<T> serviceClass) {
+    return (Lazy<T>) sLazies.get(serviceClass);
+  }
+
+  /**
+   * 在线程池中构造service，适合newInstance较慢的service。同时请求同一接口时共享一次构造，
+   * 已缓存的单例直接返回已完成的Future。PROTOTYPE每次请求单独构造，THREAD_LOCAL得到的是线程池线程的实例
+   */
+  @NonNull
+  public static <T extends Service> Future<T> getAsync(@NonNull Class<T> serviceClass) {
+    return getAsyncInternal(serviceClass);
+  }
+
+  /**
+   * 同{@link #getAsync(Class)}，结果在主线程回调
+   */
+  public static <T extends Service> void getAsync(@NonNull Class<T> serviceClass,
+      @NonNull ServiceCallback<? super T> callback) {
+    getAsyncInternal(serviceClass).addCallback(callback);
+  }
+
+  /**
+   * 设置异步构造的线程池，默认是按CPU核数限制大小的线程池
+   */
+  public static void setAsyncExecutor(@NonNull Executor executor) {
+    sAsyncExecutor = executor;
+  }
+
+  private static <T extends Service> ServiceFuture<T> getAsyncInternal(Class<T> serviceClass) {
+    final Lazy<T> lazy = lazy(serviceClass);
+    final T cached = lazy.peek();
+    if (cached != null) {
+      ServiceFuture<T> future = new ServiceFuture<>(serviceClass, new Callable<T>() {
+        @Override
+        public T call() {
+          return cached;
+        }
+      }, null);
+      future.run();
+      return future;
+    }
+    Callable<T> create = new Callable<T>() {
+      @Override
+      public T call() {
+        return lazy.get();
+      }
+    };
+    // PROTOTYPE每次都是新实例，不能共享
+    if (sManager.getScope(serviceClass) == Scope.PROTOTYPE) {
+      ServiceFuture<T> future = new ServiceFuture<>(serviceClass, create, null);
+      asyncExecutor().execute(future);
+      return future;
+    }
+    ServiceFuture<T> future = inFlight(serviceClass, sInFlight.get(serviceClass));
+    if (future == null) {
+      ServiceFuture<T> newFuture = new ServiceFuture<>(serviceClass, create, sInFlight);
+      future = inFlight(serviceClass, sInFlight.putIfAbsent(serviceClass, newFuture));
+      if (future == null) {
+        future = newFuture;
+        asyncExecutor().execute(newFuture);
+      }
+    }
+    return future;
+  }
+
+  /**
+   * sInFlight中接口与future的类型由getAsyncInternal保证一致。完成后会被移除，
+   * 所以不能像lazy(Class)那样putIfAbsent后重新get，只转换取到的值
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private static <T extends Service> ServiceFuture<T> inFlight(Class<T> serviceClass,
+      @Nullable ServiceFuture<?> future) {
+    return (ServiceFuture<T>) future;
+  }
+
+  private static Executor asyncExecutor() {
+    Executor executor = sAsyncExecutor;
+    if (executor == null) {
+      synchronized (ServiceManager.class) {
+        executor = sAsyncExecutor;
+        if (executor == null) {
+          executor = ThreadUtils.newDefaultExecutor("service-async-");
+          sAsyncExecutor = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * 获取通过{@link #registerIntoSet}注册的全部实现，按优先级从高到低排序。
+   * 返回不可修改的列表，会被缓存共享；没有实现时返回空列表
+   */
+  @NonNull
+  public static <T extends Service> List<T> getAll(@NonNull Class<T> serviceClass) {
+    return sManager.getAll(serviceClass);
+  }
+
+  /**
+   * 按slot获取service，slot通过{@link #slotOf(Class)}获取后可缓存，查找不需要hash
+   */
+  @Nullable
+  public static <T extends Service> T get(int slot) {
+    return sManager.get(slot);
+  }
+
+  public static int slotOf(@NonNull Class<? extends Service> serviceClass) {
+    return sManager.slotOf(serviceClass);
+  }
+
+  /**
+   * 由编译期生成的register调用，按模块内service个数预留slot
+   */
+  public static void reserveSlots(int count) {
+    sManager.reserveSlots(count);
+  }
+
   public static <T extends Service> void register(Class<T> clazz, Factory<T> factory) {
     sManager.registerFactory(clazz, factory);
   }
@@ -55,6 +237,173 @@ public class ServiceManager {
     sManager.registerFactory(clazz, factory, priority);
   }
 
+  /**
+   * @param retryPolicy factory返回null后的重试策略
+   */
+  public static <T extends Service> void register(Class<T> clazz, Factory<T> factory,
+      int priority, RetryPolicy retryPolicy) {
+    sManager.registerFactory(clazz, factory, priority, retryPolicy);
+  }
+
+  /**
+   * @param scope 实例的缓存范围，见{@link Scope}
+   */
+  public static <T extends Service> void register(Class<T> clazz, Factory<T> factory,
+      int priority, int scope) {
+    sManager.registerFactory(clazz, factory, priority, RetryPolicy.ALWAYS, scope);
+  }
+
+  public static <T extends Service> void register(Class<T> clazz, Factory<T> factory,
+      int priority, RetryPolicy retryPolicy, int scope) {
+    sManager.registerFactory(clazz, factory, priority, retryPolicy, scope);
+  }
+
+  /**
+   * 延迟注册，由编译期生成的register调用，首次get时才加载和创建factory
+   */
+  public static void registerLazy(Class<? extends Service> clazz, FactoryProvider provider,
+      int factoryIndex, int priority) {
+    sManager.registerLazyFactory(clazz, provider, factoryIndex, priority);
+  }
+
+  /**
+   * 延迟注册，指定重试策略和scope，见{@link #register(Class, Factory, int, RetryPolicy, int)}
+   */
+  public static void registerLazy(Class<? extends Service> clazz, FactoryProvider provider,
+      int factoryIndex, int priority, RetryPolicy retryPolicy, int scope) {
+    sManager.registerLazyFactory(clazz, provider, factoryIndex, priority, retryPolicy, scope);
+  }
+
+  /**
+   * 注册到多绑定，同一接口可以有多个实现，通过{@link #getAll(Class)}获取，不参与{@link #get(Class)}
+   */
+  public static <T extends Service> void registerIntoSet(Class<T> clazz,
+      Factory<? extends T> factory, int priority) {
+    sManager.registerFactoryIntoSet(clazz, factory, priority);
+  }
+
+  /**
+   * 延迟注册到多绑定，由编译期生成的register调用
+   */
+  public static <T extends Service> void registerLazyIntoSet(Class<T> clazz,
+      FactoryProvider provider, int factoryIndex, int priority) {
+    sManager.registerLazyFactoryIntoSet(clazz, provider, factoryIndex, priority);
+  }
+
+  /**
+   * 由编译期生成的register调用，追加模块内依赖在前的service顺序
+   */
+  public static void addWarmUpOrder(@NonNull Class<?>[] order) {
+    synchronized (sWarmUpOrder) {
+      // 生成代码无法创建Class<? extends Service>[]，逐个检查类型
+      for (Class<?> serviceClass : order) {
+        sWarmUpOrder.add(serviceClass.asSubclass(Service.class));
+      }
+    }
+  }
+
+  /**
+   * 由编译期生成的register调用，记录需要预创建的service
+   *
+   * @param preload 见{@link Preload}
+   * @param priority 值越大越先创建
+   */
+  public static void addPreload(@NonNull Class<? extends Service> serviceClass, int preload,
+      int priority) {
+    sPreloader.add(serviceClass, preload, priority);
+  }
+
+  /**
+   * 取消尚未执行的预创建，比如进程即将退出。正在创建的service不受影响
+   */
+  public static void cancelPreload() {
+    sPreloader.cancel();
+  }
+
+  /**
+   * 按依赖顺序提前创建所有service，依赖已构造完成时不会在持有锁期间嵌套构造，可在子线程调用
+   */
+  public static void warmUp() {
+    List<Class<? extends Service>> order;
+    synchronized (sWarmUpOrder) {
+      order = new ArrayList<>(sWarmUpOrder);
+    }
+    for (Class<? extends Service> serviceClass : order) {
+      get(serviceClass);
+    }
+  }
+
+  /**
+   * 清除service的构造失败状态，比如依赖的配置已就绪，下次get时重新构造
+   */
+  public static void invalidate(@NonNull Class<? extends Service> serviceClass) {
+    sManager.invalidate(serviceClass);
+  }
+
+  /**
+   * 常驻的service不会被{@link #trimMemory(int)}回收，可在注册前设置
+   */
+  public static void setPinned(@NonNull Class<? extends Service> serviceClass, boolean pinned) {
+    sManager.setPinned(serviceClass, pinned);
+  }
+
+  /**
+   * 按内存紧张程度回收空闲的service，越紧张空闲时间阈值越短。
+   * 优先回收sizeHint大的，相同时按最近使用时间从旧到新。
+   * 只回收实现了{@link com.kuaishou.commercial.utility.ioc.core.Evictable}的实例，
+   * 被回收的service收到回调，下次get时重新创建。
+   * 使用时间从{@link #enableTrimOnLowMemory()}或首次调用时开始记录。
+   *
+   * @param level ComponentCallbacks2.TRIM_MEMORY_*
+   * @return 回收的个数
+   */
+  public static int trimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+      // 进程随时可能被杀，不再预创建
+      cancelPreload();
+      return sManager.trim(MIN_TRIM_IDLE_NANOS, Integer.MAX_VALUE);
+    }
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      return sManager.trim(TimeUnit.SECONDS.toNanos(10), Integer.MAX_VALUE);
+    }
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+      return sManager.trim(TimeUnit.MINUTES.toNanos(1), Integer.MAX_VALUE);
+    }
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      return sManager.trim(TimeUnit.MINUTES.toNanos(1), FOREGROUND_TRIM_MAX_COUNT);
+    }
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      return sManager.trim(TimeUnit.MINUTES.toNanos(5), FOREGROUND_TRIM_MAX_COUNT);
+    }
+    return 0;
+  }
+
+  /**
+   * 监听系统的内存回调并自动{@link #trimMemory(int)}，需在{@link #init(Context)}之后调用
+   */
+  public static synchronized void enableTrimOnLowMemory() {
+    if (sTrimOnLowMemory) {
+      return;
+    }
+    sTrimOnLowMemory = true;
+    sManager.enableTrim();
+    mContext.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+      @Override
+      public void onTrimMemory(int level) {
+        trimMemory(level);
+      }
+
+      @Override
+      public void onConfigurationChanged(@NonNull Configuration newConfig) {
+      }
+
+      @Override
+      public void onLowMemory() {
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+      }
+    });
+  }
+
   /**
    * 可覆盖注册service，比如新注册的service优先级高于现有的，则会覆盖。
    */
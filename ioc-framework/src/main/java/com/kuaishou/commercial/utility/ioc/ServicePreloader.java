@@ -0,0 +1,154 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import com.kuaishou.commercial.utility.ioc.core.Preload;
+import com.kuaishou.commercial.utility.ioc.core.Scope;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 按注解的preload提示在后台预创建service。同一时机的service在一个任务中按优先级依次创建，
+ * 通过{@link Lazy}获取，与其他线程的get共用factory的单次构造保证；取消后剩余的不再创建
+ */
+final class ServicePreloader {
+  private static final String TAG = "ServicePreloader";
+
+  /**
+   * 在主线程Looper首次空闲时执行。调用线程不一定有Looper，而Looper.getQueue()需要API 23，
+   * 所以先post到主线程，再在主线程取myQueue()
+   */
+  private static final Executor MAIN_IDLE = new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      new Handler(Looper.getMainLooper()).post(new Runnable() {
+        @Override
+        public void run() {
+          Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+              command.run();
+              return false;
+            }
+          });
+        }
+      });
+    }
+  };
+
+  // 注册顺序，受this保护
+  private final List<Entry> mEntries = new ArrayList<>();
+  private volatile boolean mCancelled;
+  private boolean mStarted;
+  private Executor mIdleExecutor = MAIN_IDLE;
+
+  synchronized void add(Class<? extends Service> serviceClass, int preload, int priority) {
+    if (preload == Preload.EAGER || preload == Preload.IDLE) {
+      mEntries.add(new Entry(serviceClass, preload, priority));
+    }
+  }
+
+  /**
+   * 仅供测试替换主线程空闲的时机
+   */
+  synchronized void setIdleExecutor(Executor idleExecutor) {
+    mIdleExecutor = idleExecutor;
+  }
+
+  /**
+   * EAGER的立即提交到executor，IDLE的在主线程首次空闲时提交，只生效一次。可以在任意线程调用
+   */
+  synchronized void start(final Executor executor) {
+    if (mStarted || mCancelled) {
+      return;
+    }
+    mStarted = true;
+    List<Entry> eager = sorted(Preload.EAGER);
+    final List<Entry> idle = sorted(Preload.IDLE);
+    if (!eager.isEmpty()) {
+      executor.execute(newTask(eager));
+    }
+    if (!idle.isEmpty()) {
+      mIdleExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!mCancelled) {
+            executor.execute(newTask(idle));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * 取消未开始的预创建，正在创建的service不受影响。已注册的IdleHandler在空闲时直接跳过
+   */
+  synchronized void cancel() {
+    mCancelled = true;
+  }
+
+  private List<Entry> sorted(int preload) {
+    List<Entry> entries = new ArrayList<>();
+    for (Entry entry : mEntries) {
+      if (entry.mPreload == preload) {
+        entries.add(entry);
+      }
+    }
+    // 稳定排序，优先级相同时保持注册顺序
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry o1, Entry o2) {
+        return o1.mPriority > o2.mPriority ? -1 : o1.mPriority < o2.mPriority ? 1 : 0;
+      }
+    });
+    return entries;
+  }
+
+  private Runnable newTask(final List<Entry> entries) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        for (Entry entry : entries) {
+          if (mCancelled) {
+            return;
+          }
+          preload(entry.mServiceClass);
+        }
+      }
+    };
+  }
+
+  private static void preload(Class<? extends Service> serviceClass) {
+    try {
+      // 不缓存或可能很快被回收的scope预创建没有意义
+      int scope = ServiceManager.sManager.getScope(serviceClass);
+      if (scope == Scope.PROTOTYPE || scope == Scope.THREAD_LOCAL || scope == Scope.WEAK
+          || scope == Scope.SOFT) {
+        return;
+      }
+      ServiceManager.lazy(serviceClass).get();
+    } catch (RuntimeException e) {
+      Log.w(TAG, "preload " + serviceClass.getName() + " failed", e);
+    }
+  }
+
+  private static final class Entry {
+    final Class<? extends Service> mServiceClass;
+    final int mPreload;
+    final int mPriority;
+
+    Entry(Class<? extends Service> serviceClass, int preload, int priority) {
+      mServiceClass = serviceClass;
+      mPreload = preload;
+      mPriority = priority;
+    }
+  }
+}
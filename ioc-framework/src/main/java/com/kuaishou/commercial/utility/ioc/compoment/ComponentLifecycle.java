@@ -4,8 +4,39 @@ package com.kuaishou.commercial.utility.ioc.compoment;
  * 组件的生命周期接口，可用于注册自己的业务服务等。
  */
 public interface ComponentLifecycle {
+  String[] NONE = new String[0];
+
   /**
    * SDK 初始化接口
    */
   void onInit();
+
+  /**
+   * 组件名，其他组件可以通过名字依赖本组件，默认是类名
+   */
+  default String name() {
+    return getClass().getName();
+  }
+
+  /**
+   * 初始化前需要完成的组件名或产出，没有对应提供者的依赖会被忽略
+   */
+  default String[] dependencies() {
+    return NONE;
+  }
+
+  /**
+   * 初始化完成后提供的产出，比如注册的服务接口名
+   */
+  default String[] produces() {
+    return NONE;
+  }
+
+  /**
+   * 是否必须在调用{@link ComponentManager#init()}的线程上初始化，默认是，
+   * 没有线程要求的组件返回false后可以在后台并行初始化
+   */
+  default boolean runOnMainThread() {
+    return true;
+  }
 }
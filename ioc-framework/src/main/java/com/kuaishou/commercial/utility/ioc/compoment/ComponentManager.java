@@ -1,24 +1,42 @@
 package com.kuaishou.commercial.utility.ioc.compoment;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 
+import com.kuaishou.commercial.utility.ioc.util.ThreadUtils;
+
 /**
  * 组件的管理，负责注册生命周期等。
+ * <p>
+ * 初始化按组件声明的依赖关系执行：依赖完成后才初始化，互不依赖的后台组件在线程池中并行初始化，
+ * 主线程组件始终在调用init的线程上执行。
  */
 public class ComponentManager {
   private final static ComponentManager mInstance = new ComponentManager();
 
-  private ComponentManager() {}
+  // 除单例外仅供测试创建独立的实例
+  ComponentManager() {}
 
   public static ComponentManager getInstance() {
     return mInstance;
   }
 
   private final List<ComponentLifecycle> mComponentLifecycles = new ArrayList<>();
+  private Executor mExecutor;
+  private volatile InitSession mSession;
 
   /**
    * @param componentLifecycle 组件的生命周期
@@ -28,10 +46,280 @@ public class ComponentManager {
     mComponentLifecycles.add(componentLifecycle);
   }
 
+  /**
+   * 设置后台组件的线程池，默认是按CPU核数限制大小的线程池
+   */
+  @MainThread
+  public void setExecutor(@NonNull Executor executor) {
+    mExecutor = executor;
+  }
+
+  /**
+   * 初始化所有组件，全部完成后返回
+   *
+   * @throws IllegalStateException 组件依赖存在环
+   */
   @MainThread
   public void init() {
-    for (ComponentLifecycle componentLifecycle : mComponentLifecycles) {
-      componentLifecycle.onInit();
+    init(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 初始化所有组件，超时后返回，未完成的后台组件继续执行，
+   * 未执行的主线程组件在调用线程下次{@link #await}时执行
+   *
+   * @return 是否全部完成
+   * @throws IllegalStateException 组件依赖存在环
+   */
+  @MainThread
+  public boolean init(long timeout, @NonNull TimeUnit unit) {
+    if (mExecutor == null) {
+      mExecutor = ThreadUtils.newDefaultExecutor("component-init-");
+    }
+    InitSession session = new InitSession(new ArrayList<>(mComponentLifecycles), mExecutor);
+    mSession = session;
+    session.start();
+    return session.await(timeout, unit);
+  }
+
+  /**
+   * 等待初始化完成，调用init的线程等待时会执行就绪的主线程组件
+   *
+   * @return 是否全部完成
+   */
+  public boolean await(long timeout, @NonNull TimeUnit unit) {
+    InitSession session = mSession;
+    return session == null || session.await(timeout, unit);
+  }
+
+  private static final class Node {
+    final ComponentLifecycle mComponent;
+    final List<Node> mDependents = new ArrayList<>();
+    final AtomicInteger mPending = new AtomicInteger();
+
+    Node(ComponentLifecycle component) {
+      mComponent = component;
+    }
+  }
+
+  /**
+   * 一次初始化的执行状态
+   */
+  private static final class InitSession {
+    // 唤醒调用线程的空节点
+    private static final Node WAKE_UP = new Node(null);
+
+    private final List<Node> mNodes = new ArrayList<>();
+    private final Executor mExecutor;
+    private final Thread mOwner = Thread.currentThread();
+    private final BlockingQueue<Node> mMainQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger mRemaining;
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+    private volatile Throwable mFailure;
+
+    InitSession(List<ComponentLifecycle> components, Executor executor) {
+      mExecutor = executor;
+      Map<String, List<Node>> providers = new HashMap<>();
+      for (ComponentLifecycle component : components) {
+        Node node = new Node(component);
+        mNodes.add(node);
+        addProvider(providers, component.name(), node);
+        for (String product : component.produces()) {
+          addProvider(providers, product, node);
+        }
+      }
+      for (Node node : mNodes) {
+        Set<Node> dependencies = new LinkedHashSet<>();
+        for (String dependency : node.mComponent.dependencies()) {
+          List<Node> provider = providers.get(dependency);
+          if (provider != null) {
+            dependencies.addAll(provider);
+          }
+        }
+        dependencies.remove(node);
+        for (Node dependency : dependencies) {
+          dependency.mDependents.add(node);
+        }
+        node.mPending.set(dependencies.size());
+      }
+      checkCycle();
+      mRemaining = new AtomicInteger(mNodes.size());
+    }
+
+    private static void addProvider(Map<String, List<Node>> providers, String key, Node node) {
+      List<Node> list = providers.get(key);
+      if (list == null) {
+        list = new ArrayList<>();
+        providers.put(key, list);
+      }
+      list.add(node);
+    }
+
+    /**
+     * 拓扑排序检查依赖环，在执行任何组件前抛出
+     */
+    private void checkCycle() {
+      Map<Node, Integer> pending = new HashMap<>();
+      List<Node> ready = new ArrayList<>();
+      for (Node node : mNodes) {
+        pending.put(node, node.mPending.get());
+        if (node.mPending.get() == 0) {
+          ready.add(node);
+        }
+      }
+      for (int i = 0; i < ready.size(); i++) {
+        for (Node dependent : ready.get(i).mDependents) {
+          int left = pending.get(dependent) - 1;
+          pending.put(dependent, left);
+          if (left == 0) {
+            ready.add(dependent);
+          }
+        }
+      }
+      if (ready.size() == mNodes.size()) {
+        return;
+      }
+      StringBuilder cycle = new StringBuilder();
+      for (Node node : findCycle(pending)) {
+        cycle.append(node.mComponent.name()).append(' ');
+      }
+      throw new IllegalStateException("component dependency cycle: " + cycle.toString().trim());
+    }
+
+    /**
+     * 未完成的节点除了环上的，还有依赖环的下游节点。未完成的节点至少有一个未完成的依赖，
+     * 从任一未完成的节点沿未完成的依赖回溯，必然走进环里
+     *
+     * @return 环上的节点，每个依赖下一个，最后一个依赖第一个
+     */
+    private List<Node> findCycle(Map<Node, Integer> pending) {
+      // 每个未完成的节点取一个未完成的依赖
+      Map<Node, Node> dependencyOf = new HashMap<>();
+      for (Node node : mNodes) {
+        if (pending.get(node) == 0) {
+          continue;
+        }
+        for (Node dependent : node.mDependents) {
+          if (!dependencyOf.containsKey(dependent)) {
+            dependencyOf.put(dependent, node);
+          }
+        }
+      }
+      List<Node> path = new ArrayList<>();
+      Node node = null;
+      for (Node candidate : mNodes) {
+        if (pending.get(candidate) > 0) {
+          node = candidate;
+          break;
+        }
+      }
+      while (!path.contains(node)) {
+        path.add(node);
+        node = dependencyOf.get(node);
+      }
+      return path.subList(path.indexOf(node), path.size());
+    }
+
+    void start() {
+      if (mNodes.isEmpty()) {
+        mFinished.countDown();
+        return;
+      }
+      for (Node node : mNodes) {
+        if (node.mPending.get() == 0) {
+          dispatch(node);
+        }
+      }
+    }
+
+    private void dispatch(final Node node) {
+      if (node.mComponent.runOnMainThread()) {
+        mMainQueue.offer(node);
+        return;
+      }
+      try {
+        mExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            execute(node);
+          }
+        });
+      } catch (Throwable e) {
+        // 线程池拒绝等调度失败同样视为初始化失败，否则剩余组件永远不会完成，调用线程一直等待
+        fail(e);
+      }
+    }
+
+    private void execute(Node node) {
+      if (mFailure != null) {
+        return;
+      }
+      try {
+        node.mComponent.onInit();
+      } catch (Throwable e) {
+        fail(e);
+        return;
+      }
+      for (Node dependent : node.mDependents) {
+        if (dependent.mPending.decrementAndGet() == 0) {
+          dispatch(dependent);
+        }
+      }
+      if (mRemaining.decrementAndGet() == 0) {
+        mFinished.countDown();
+        mMainQueue.offer(WAKE_UP);
+      }
+    }
+
+    /**
+     * 失败后不再调度新的组件，异常在await中抛出
+     */
+    private void fail(Throwable e) {
+      if (mFailure == null) {
+        mFailure = e;
+      }
+      mFinished.countDown();
+      mMainQueue.offer(WAKE_UP);
+    }
+
+    boolean await(long timeout, TimeUnit unit) {
+      long timeoutNanos = unit.toNanos(timeout);
+      long deadline = System.nanoTime() + timeoutNanos;
+      boolean runMain = Thread.currentThread() == mOwner;
+      try {
+        while (true) {
+          checkFailure();
+          if (mFinished.getCount() == 0) {
+            return true;
+          }
+          long left = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+          if (left <= 0) {
+            return false;
+          }
+          if (runMain) {
+            Node node = mMainQueue.poll(left, TimeUnit.NANOSECONDS);
+            if (node != null && node != WAKE_UP) {
+              execute(node);
+            }
+          } else {
+            mFinished.await(left, TimeUnit.NANOSECONDS);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    private void checkFailure() {
+      Throwable failure = mFailure;
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw new RuntimeException(failure);
+      }
     }
   }
 }
@@ -0,0 +1,11 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+/**
+ * 单绑定变化的回调，缓存了service实例的调用方据此失效缓存
+ */
+public interface BindingListener {
+  /**
+   * 接口的绑定被替换，或缓存的实例被回收。在变化生效之后回调，回调中get到的是新的结果
+   */
+  void onBindingChanged(Class<?> serviceClass);
+}
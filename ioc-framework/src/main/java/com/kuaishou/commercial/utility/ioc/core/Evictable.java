@@ -0,0 +1,19 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+/**
+ * 可回收的service。只有实现此接口的实例才会被{@link ServiceStore#trim(long, int)}回收，
+ * 实现方需保证旧实例被释放后，调用方重新get得到新实例不会出错；回收时收到回调，用于释放缓存、注销监听等
+ */
+public interface Evictable {
+  /**
+   * 实例已从容器移除，下次get会创建新实例。在调用trim的线程回调
+   */
+  void onEvict();
+
+  /**
+   * 实例大致占用的字节数，空闲的service中优先回收大的，相同时按最近使用时间。只需量级准确
+   */
+  default long sizeHint() {
+    return 0;
+  }
+}
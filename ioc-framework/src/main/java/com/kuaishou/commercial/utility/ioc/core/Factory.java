@@ -1,23 +1,176 @@
 package com.kuaishou.commercial.utility.ioc.core;
 
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetrics;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetricsListener;
+
 /**
  * 生产service的工厂类
  *
  * @param <T> 要生产service的泛型
  */
 public abstract class Factory<T> {
-  T mInstance;
+  /**
+   * volatile保证构造完成的实例对其他线程安全可见，构造完成后的读取无需加锁
+   */
+  volatile T mInstance;
+  // WEAK、SOFT时的缓存
+  private volatile Reference<T> mReference;
+  // THREAD_LOCAL时的缓存，首次使用时创建
+  private volatile ThreadLocal<T> mThreadLocal;
 
   protected abstract T newInstance();
 
+  /**
+   * newInstance返回null时的降级实现，编译期生成的factory会返回生成的空实现单例
+   */
+  protected T newStub() {
+    return null;
+  }
+
+  /**
+   * 实例的缓存范围，见{@link Scope}，编译期生成的factory按注解覆写。注册时指定的scope优先
+   */
+  protected int scope() {
+    return Scope.SINGLETON;
+  }
+
+  /**
+   * 是否只允许异步获取，编译期生成的factory按注解覆写。为true时在主线程同步get会上报告警
+   */
+  protected boolean asyncOnly() {
+    return false;
+  }
+
   final T getInstance() {
-    if (this.mInstance == null) {
-      this.mInstance = this.create();
+    return getInstance(null, scope());
+  }
+
+  /**
+   * @param serviceClass 仅用于监控上报
+   */
+  final T getInstance(Class<?> serviceClass, int scope) {
+    switch (scope) {
+      case Scope.PROTOTYPE:
+        return create(serviceClass, ServiceMetrics.getListener());
+      case Scope.THREAD_LOCAL:
+        return getThreadLocalInstance(serviceClass);
+      case Scope.WEAK:
+      case Scope.SOFT:
+        return getReferenceInstance(serviceClass, scope);
+      default:
+        return getSingletonInstance(serviceClass);
+    }
+  }
+
+  private T getSingletonInstance(Class<?> serviceClass) {
+    T instance = this.mInstance;
+    if (instance != null) {
+      return instance;
+    }
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    long lockStart = listener != null ? System.nanoTime() : 0;
+    synchronized (this) {
+      if (listener != null) {
+        listener.onLockWait(serviceClass, System.nanoTime() - lockStart);
+      }
+      instance = this.mInstance;
+      if (instance == null) {
+        instance = this.create(serviceClass, listener);
+        this.mInstance = instance;
+      }
+    }
+    return instance;
+  }
+
+  private T getReferenceInstance(Class<?> serviceClass, int scope) {
+    Reference<T> reference = this.mReference;
+    T instance = reference != null ? reference.get() : null;
+    if (instance != null) {
+      return instance;
+    }
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    long lockStart = listener != null ? System.nanoTime() : 0;
+    synchronized (this) {
+      if (listener != null) {
+        listener.onLockWait(serviceClass, System.nanoTime() - lockStart);
+      }
+      reference = this.mReference;
+      instance = reference != null ? reference.get() : null;
+      if (instance == null) {
+        instance = this.create(serviceClass, listener);
+        if (instance != null) {
+          this.mReference = scope == Scope.WEAK
+              ? new WeakReference<>(instance) : new SoftReference<>(instance);
+        }
+      }
+    }
+    return instance;
+  }
+
+  private T getThreadLocalInstance(Class<?> serviceClass) {
+    ThreadLocal<T> threadLocal = this.mThreadLocal;
+    if (threadLocal == null) {
+      synchronized (this) {
+        threadLocal = this.mThreadLocal;
+        if (threadLocal == null) {
+          threadLocal = new ThreadLocal<>();
+          this.mThreadLocal = threadLocal;
+        }
+      }
     }
-    return this.mInstance;
+    T instance = threadLocal.get();
+    if (instance == null) {
+      instance = this.create(serviceClass, ServiceMetrics.getListener());
+      if (instance != null) {
+        threadLocal.set(instance);
+      }
+    }
+    return instance;
   }
 
-  private T create() {
-    return this.newInstance();
+  /**
+   * @return SINGLETON、WEAK、SOFT缓存的可回收实例，不创建
+   */
+  final Evictable peekEvictable() {
+    Object instance = this.mInstance;
+    Reference<T> reference = this.mReference;
+    if (instance == null && reference != null) {
+      instance = reference.get();
+    }
+    return instance instanceof Evictable ? (Evictable) instance : null;
+  }
+
+  /**
+   * 释放SINGLETON、WEAK、SOFT缓存的实例，下次get时重新创建。
+   * 只释放实现了{@link Evictable}的实例，其他实例可能被调用方持有，释放后会出现第二个"单例"
+   *
+   * @return 被释放的实例，没有缓存或不可回收时为null
+   */
+  final synchronized T evict() {
+    T instance = this.mInstance;
+    Reference<T> reference = this.mReference;
+    if (instance == null && reference != null) {
+      instance = reference.get();
+    }
+    if (!(instance instanceof Evictable)) {
+      return null;
+    }
+    this.mInstance = null;
+    this.mReference = null;
+    return instance;
+  }
+
+  private T create(Class<?> serviceClass, ServiceMetricsListener listener) {
+    if (listener == null) {
+      return this.newInstance();
+    }
+    long createStart = System.nanoTime();
+    T instance = this.newInstance();
+    listener.onCreate(serviceClass, System.nanoTime() - createStart, instance != null);
+    return instance;
   }
 }
@@ -0,0 +1,9 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+/**
+ * 延迟注册时按下标创建factory，由编译期生成的register实现。
+ * 注册时只记录下标，factory类在首次get时才加载和创建。
+ */
+public interface FactoryProvider {
+  Factory<?> getFactory(int index);
+}
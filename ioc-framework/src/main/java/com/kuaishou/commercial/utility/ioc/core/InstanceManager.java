@@ -1,5 +1,6 @@
 package com.kuaishou.commercial.utility.ioc.core;
 
+import java.util.List;
 import java.util.Map;
 
 public class InstanceManager<Base> {
@@ -14,6 +15,18 @@ public class InstanceManager<Base> {
     return mServiceStore.get(serviceClass);
   }
 
+  public <T extends Base> T get(int slot) {
+    return mServiceStore.get(slot);
+  }
+
+  public int slotOf(Class<? extends Base> tClass) {
+    return mServiceStore.slotOf(tClass);
+  }
+
+  public void reserveSlots(int count) {
+    mServiceStore.reserveSlots(count);
+  }
+
   public boolean registerFactory(Class<? extends Base> tClass, Factory<? extends Base> factory) {
     return registerServiceProperty(tClass,
         new ServiceProperty<>(tClass, factory, Constants.MIN_PRIORITY));
@@ -24,6 +37,96 @@ public class InstanceManager<Base> {
     return registerServiceProperty(tClass, new ServiceProperty<>(tClass, factory, priority));
   }
 
+  public boolean registerFactory(Class<? extends Base> tClass, Factory<? extends Base> factory,
+      int priority, RetryPolicy retryPolicy) {
+    return registerServiceProperty(tClass,
+        new ServiceProperty<>(tClass, factory, priority, retryPolicy));
+  }
+
+  /**
+   * @param scope 见{@link Scope}，覆盖factory自身的scope
+   */
+  public boolean registerFactory(Class<? extends Base> tClass, Factory<? extends Base> factory,
+      int priority, RetryPolicy retryPolicy, int scope) {
+    return registerServiceProperty(tClass,
+        new ServiceProperty<>(tClass, factory, priority, retryPolicy, scope));
+  }
+
+  /**
+   * 延迟注册，首次get时才通过provider创建factory
+   */
+  public boolean registerLazyFactory(Class<? extends Base> tClass, FactoryProvider provider,
+      int factoryIndex, int priority) {
+    return registerServiceProperty(tClass,
+        new ServiceProperty<>(tClass, provider, factoryIndex, priority));
+  }
+
+  /**
+   * @param scope 见{@link Scope}，覆盖factory自身的scope
+   */
+  public boolean registerLazyFactory(Class<? extends Base> tClass, FactoryProvider provider,
+      int factoryIndex, int priority, RetryPolicy retryPolicy, int scope) {
+    return registerServiceProperty(tClass,
+        new ServiceProperty<>(tClass, provider, factoryIndex, priority, retryPolicy, scope));
+  }
+
+  /**
+   * 绑定被替换或实例被回收时回调，见{@link BindingListener}
+   */
+  public void setBindingListener(BindingListener listener) {
+    mServiceStore.setBindingListener(listener);
+  }
+
+  /**
+   * 当前绑定实际生效的scope，没有绑定时返回{@link Scope#DEFAULT}
+   */
+  public int getScope(Class<? extends Base> tClass) {
+    return mServiceStore.getScope(tClass);
+  }
+
+  /**
+   * 清除service的构造失败状态，下次get时重试
+   */
+  public void invalidate(Class<? extends Base> tClass) {
+    mServiceStore.invalidate(tClass);
+  }
+
+  /**
+   * 多绑定的全部实现，按优先级从高到低排序，返回不可修改的列表
+   */
+  public <T extends Base> List<T> getAll(Class<T> serviceClass) {
+    return mServiceStore.getAll(serviceClass);
+  }
+
+  public <T extends Base> boolean registerFactoryIntoSet(Class<T> tClass,
+      Factory<? extends T> factory, int priority) {
+    return mServiceStore.registerIntoSet(tClass, new ServiceProperty<>(tClass, factory, priority));
+  }
+
+  public <T extends Base> boolean registerLazyFactoryIntoSet(Class<T> tClass,
+      FactoryProvider provider, int factoryIndex, int priority) {
+    return mServiceStore.registerIntoSet(tClass,
+        new ServiceProperty<>(tClass, provider, factoryIndex, priority));
+  }
+
+  public void setPinned(Class<? extends Base> tClass, boolean pinned) {
+    mServiceStore.setPinned(tClass, pinned);
+  }
+
+  /**
+   * 开始记录使用时间，见{@link ServiceStore#enableTrim()}
+   */
+  public void enableTrim() {
+    mServiceStore.enableTrim();
+  }
+
+  /**
+   * 回收空闲超过idleNanos的service，最多maxCount个
+   */
+  public int trim(long idleNanos, int maxCount) {
+    return mServiceStore.trim(idleNanos, maxCount);
+  }
+
   /**
    * 可覆盖注册service，比如新注册的service优先级高于现有的，则会覆盖。
    *
@@ -0,0 +1,76 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个接口的多个实现，按优先级从高到低排序，同优先级按注册顺序。
+ * 注册时复制列表，读取无锁；实例列表构造一次后缓存，新注册时失效。
+ */
+final class MultiBinding<T> {
+  // 不可修改，注册时整体替换
+  private volatile List<ServiceProperty<? extends T>> mProperties = Collections.emptyList();
+  // 全部构造成功且都是SINGLETON时才缓存，不可修改，可以安全地共享给所有调用方
+  private volatile List<T> mInstances;
+
+  /**
+   * 同一个factory重复注册时替换原有的
+   */
+  synchronized void add(ServiceProperty<? extends T> property) {
+    List<ServiceProperty<? extends T>> properties = new ArrayList<>(mProperties);
+    for (int i = 0; i < properties.size(); i++) {
+      if (properties.get(i).isSameBinding(property)) {
+        properties.remove(i);
+        break;
+      }
+    }
+    int index = properties.size();
+    while (index > 0 && properties.get(index - 1).getPriority() < property.getPriority()) {
+      index--;
+    }
+    properties.add(index, property);
+    mProperties = Collections.unmodifiableList(properties);
+    mInstances = null;
+  }
+
+  int size() {
+    return mProperties.size();
+  }
+
+  /**
+   * 构造失败的实现不包含在结果中，且结果不缓存，下次调用时重试
+   *
+   * @return 不可修改的列表
+   */
+  List<T> getAll() {
+    List<T> instances = mInstances;
+    if (instances != null) {
+      return instances;
+    }
+    List<ServiceProperty<? extends T>> properties = mProperties;
+    List<T> result = new ArrayList<>(properties.size());
+    boolean cacheable = true;
+    for (ServiceProperty<? extends T> property : properties) {
+      if (property.getScope() != Scope.SINGLETON) {
+        cacheable = false;
+      }
+      T instance = property.getInstance(false);
+      if (instance == null) {
+        cacheable = false;
+      } else {
+        result.add(instance);
+      }
+    }
+    instances = Collections.unmodifiableList(result);
+    if (cacheable) {
+      synchronized (this) {
+        // 期间有新注册则不缓存
+        if (mProperties == properties) {
+          mInstances = instances;
+        }
+      }
+    }
+    return instances;
+  }
+}
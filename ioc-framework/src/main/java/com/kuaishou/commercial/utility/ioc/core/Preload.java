@@ -0,0 +1,22 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+/**
+ * service预创建的时机，取值与注解InjectFactory中的PRELOAD_*一致
+ */
+public final class Preload {
+  /**
+   * 首次使用时才创建
+   */
+  public static final int NONE = 0;
+  /**
+   * init后立即在后台创建
+   */
+  public static final int EAGER = 1;
+  /**
+   * init后主线程首次空闲时在后台创建
+   */
+  public static final int IDLE = 2;
+
+  private Preload() {
+  }
+}
@@ -0,0 +1,61 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+/**
+ * factory返回null后的重试策略，重试前的get直接返回降级实现，不再调用newInstance
+ */
+public final class RetryPolicy {
+  /**
+   * 不再自动重试
+   */
+  public static final long NO_RETRY = -1;
+
+  /**
+   * 每次get都重试，默认策略，与没有失败缓存时的行为一致
+   */
+  public static final RetryPolicy ALWAYS = new RetryPolicy(0, 0, true);
+  /**
+   * 只在{@link ServiceProperty#invalidate()}之后重试
+   */
+  public static final RetryPolicy ON_INVALIDATE = new RetryPolicy(NO_RETRY, NO_RETRY, true);
+  /**
+   * 永久失败，invalidate也不会重试
+   */
+  public static final RetryPolicy NEVER = new RetryPolicy(NO_RETRY, NO_RETRY, false);
+
+  private final long mInitialDelayMs;
+  private final long mMaxDelayMs;
+  private final boolean mRetryOnInvalidate;
+
+  private RetryPolicy(long initialDelayMs, long maxDelayMs, boolean retryOnInvalidate) {
+    mInitialDelayMs = initialDelayMs;
+    mMaxDelayMs = maxDelayMs;
+    mRetryOnInvalidate = retryOnInvalidate;
+  }
+
+  /**
+   * 失败后间隔initialDelayMs重试，之后每次失败间隔翻倍，最大maxDelayMs
+   */
+  public static RetryPolicy backoff(long initialDelayMs, long maxDelayMs) {
+    if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs) {
+      throw new IllegalArgumentException("illegal delay: " + initialDelayMs + ", " + maxDelayMs);
+    }
+    return new RetryPolicy(initialDelayMs, maxDelayMs, true);
+  }
+
+  /**
+   * @param failureCount 连续失败的次数，从1开始
+   * @return 距离下次重试的毫秒数，{@link #NO_RETRY}表示不自动重试
+   */
+  public long retryDelayMs(int failureCount) {
+    if (mInitialDelayMs <= 0) {
+      return mInitialDelayMs;
+    }
+    int shift = Math.min(failureCount - 1, 30);
+    long delay = mInitialDelayMs << shift;
+    return delay <= 0 || delay > mMaxDelayMs ? mMaxDelayMs : delay;
+  }
+
+  public boolean retryOnInvalidate() {
+    return mRetryOnInvalidate;
+  }
+}
@@ -0,0 +1,40 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+/**
+ * service实例的缓存范围，取值与注解InjectFactory中的SCOPE_*一致
+ */
+public final class Scope {
+  /**
+   * 未指定，使用{@link Factory#scope()}
+   */
+  public static final int DEFAULT = -1;
+  /**
+   * 单例，强引用持有，默认值
+   */
+  public static final int SINGLETON = 0;
+  /**
+   * 每次get都创建新实例，不缓存
+   */
+  public static final int PROTOTYPE = 1;
+  /**
+   * 每个线程一个实例
+   */
+  public static final int THREAD_LOCAL = 2;
+  /**
+   * 弱引用缓存，被GC回收后重新创建
+   */
+  public static final int WEAK = 3;
+  /**
+   * 软引用缓存，内存不足被回收后重新创建
+   */
+  public static final int SOFT = 4;
+
+  private Scope() {
+  }
+
+  static void check(int scope) {
+    if (scope < DEFAULT || scope > SOFT) {
+      throw new IllegalArgumentException("illegal scope: " + scope);
+    }
+  }
+}
@@ -1,20 +1,106 @@
 package com.kuaishou.commercial.utility.ioc.core;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import android.util.Log;
+
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetrics;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetricsListener;
 import com.kuaishou.commercial.utility.ioc.util.ProxyUtils;
+import com.kuaishou.commercial.utility.ioc.util.ThreadUtils;
 
 public class ServiceProperty<T> {
-  private Class<? extends T> mServiceClass;
-  private Factory<? extends T> mServiceFactory;
-  private int mPriority;
+  private static final String TAG = "ServiceProperty";
+  // 使用时间的精度，同一区间内的get不重复写入，避免热点service的每次get都写共享的缓存行
+  private static final long USAGE_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  // 启用trim后才记录使用时间，未启用时get只多一次volatile读
+  private static volatile boolean sTrackUsage;
+  // ServiceProperty.class只有原始类型，经通配符转换为ServiceProperty<?>
+  @SuppressWarnings("unchecked")
+  private static final AtomicReferenceFieldUpdater<ServiceProperty<?>, Failure> sFailureUpdater =
+      (AtomicReferenceFieldUpdater<ServiceProperty<?>, Failure>)
+          (AtomicReferenceFieldUpdater<?, Failure>) AtomicReferenceFieldUpdater.newUpdater(
+              ServiceProperty.class, Failure.class, "mFailure");
+
+  private final Class<? extends T> mServiceClass;
+  // 延迟注册时在首次使用前为null
+  private volatile Factory<? extends T> mServiceFactory;
+  private final FactoryProvider mFactoryProvider;
+  private final int mFactoryIndex;
+  private final int mPriority;
+  private final RetryPolicy mRetryPolicy;
+  // 注册时指定的scope，Scope.DEFAULT时使用factory的scope
+  private final int mScope;
+  // 降级实现只创建一次，并发时重复创建也无副作用
+  private volatile T mFallbackInstance;
+  // 降级实现的类型，见ServiceMetricsListener.FALLBACK_*，仅用于监控
+  private volatile int mFallbackType;
+  // 构造失败的状态，没有失败或已恢复时为null
+  private volatile Failure mFailure;
+  // newInstance返回null的次数
+  private final AtomicLong mFailureCount = new AtomicLong();
+  // 因失败缓存直接返回降级实现、未调用newInstance的次数
+  private final AtomicLong mSkipCount = new AtomicLong();
+  // 最近一次get的时间，用于按LRU回收，精度见USAGE_GRANULARITY_NANOS。volatile保证32位平台上long读写的原子性
+  private volatile long mLastUsedNanos;
+  // 主线程同步get了asyncOnly的service，日志只打一次，监控每次上报
+  private volatile boolean mMainThreadGetLogged;
 
   public ServiceProperty(Class<? extends T> serviceClass, Factory<? extends T> factory,
       int priority) {
-    if (serviceClass == null || factory == null) {
-      throw new IllegalArgumentException("class or factory is null");
+    this(serviceClass, factory, priority, RetryPolicy.ALWAYS);
+  }
+
+  public ServiceProperty(Class<? extends T> serviceClass, Factory<? extends T> factory,
+      int priority, RetryPolicy retryPolicy) {
+    this(serviceClass, factory, priority, retryPolicy, Scope.DEFAULT);
+  }
+
+  /**
+   * @param scope 见{@link Scope}，覆盖factory自身的scope
+   */
+  public ServiceProperty(Class<? extends T> serviceClass, Factory<? extends T> factory,
+      int priority, RetryPolicy retryPolicy, int scope) {
+    if (serviceClass == null || factory == null || retryPolicy == null) {
+      throw new IllegalArgumentException("class, factory or retryPolicy is null");
     }
+    Scope.check(scope);
     mServiceClass = serviceClass;
     mServiceFactory = factory;
+    mFactoryProvider = null;
+    mFactoryIndex = -1;
     mPriority = priority;
+    mRetryPolicy = retryPolicy;
+    mScope = scope;
+  }
+
+  /**
+   * 延迟注册，factory在首次使用时通过provider创建
+   */
+  public ServiceProperty(Class<? extends T> serviceClass, FactoryProvider provider,
+      int factoryIndex, int priority) {
+    this(serviceClass, provider, factoryIndex, priority, RetryPolicy.ALWAYS, Scope.DEFAULT);
+  }
+
+  /**
+   * 延迟注册，重试策略和scope与直接传入factory时一致
+   *
+   * @param scope 见{@link Scope}，覆盖factory自身的scope
+   */
+  public ServiceProperty(Class<? extends T> serviceClass, FactoryProvider provider,
+      int factoryIndex, int priority, RetryPolicy retryPolicy, int scope) {
+    if (serviceClass == null || provider == null || retryPolicy == null) {
+      throw new IllegalArgumentException("class, provider or retryPolicy is null");
+    }
+    Scope.check(scope);
+    mServiceClass = serviceClass;
+    mFactoryProvider = provider;
+    mFactoryIndex = factoryIndex;
+    mPriority = priority;
+    mRetryPolicy = retryPolicy;
+    mScope = scope;
   }
 
   public int getPriority() {
@@ -26,23 +112,235 @@ public class ServiceProperty<T> {
   }
 
   public Factory<? extends T> getServiceFactory() {
-    return mServiceFactory;
+    Factory<? extends T> factory = mServiceFactory;
+    if (factory == null) {
+      synchronized (this) {
+        factory = mServiceFactory;
+        if (factory == null) {
+          factory = loadFactory();
+          if (factory == null) {
+            throw new IllegalStateException("no factory at " + mFactoryIndex + " for "
+                + mServiceClass.getName());
+          }
+          mServiceFactory = factory;
+        }
+      }
+    }
+    return factory;
   }
 
-  public synchronized T getInstance() {
-    T getInstance = (T) mServiceFactory.getInstance();
-    if (getInstance == null) {
-      // 当获取对象拿不到的时候instance通过动态代理去获取
-      getInstance = mServiceClass != null ? ProxyUtils.getInstance(mServiceClass) : null;
+  /**
+   * provider按下标返回的factory由编译期生成的register保证与接口匹配
+   */
+  @SuppressWarnings("unchecked")
+  private Factory<? extends T> loadFactory() {
+    return (Factory<? extends T>) mFactoryProvider.getFactory(mFactoryIndex);
+  }
+
+  /**
+   * 实际生效的scope，延迟注册时会触发factory的创建
+   */
+  public int getScope() {
+    return mScope != Scope.DEFAULT ? mScope : getServiceFactory().scope();
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return mRetryPolicy;
+  }
+
+  public long getFailureCount() {
+    return mFailureCount.get();
+  }
+
+  public long getSkipCount() {
+    return mSkipCount.get();
+  }
+
+  /**
+   * 不加锁，实例的单次构造由{@link Factory#getInstance()}保证
+   */
+  public T getInstance() {
+    return getInstance(true);
+  }
+
+  /**
+   * @param withFallback 构造失败时是否返回降级实现，否则返回null
+   */
+  T getInstance(boolean withFallback) {
+    if (sTrackUsage) {
+      long now = System.nanoTime();
+      if (now - mLastUsedNanos >= USAGE_GRANULARITY_NANOS) {
+        mLastUsedNanos = now;
+      }
     }
-    if (getInstance == null) {
-      try {
-        // 当获取对象拿不到的时候instance通过反射去获取
-        getInstance = mServiceClass != null ? mServiceClass.newInstance() : null;
-      } catch (IllegalAccessException | InstantiationException e) {
-        e.printStackTrace();
+    Failure failure = mFailure;
+    if (failure != null && !claimRetry(failure)) {
+      mSkipCount.incrementAndGet();
+      return withFallback ? getFallbackInstance(true) : null;
+    }
+    T getInstance = null;
+    try {
+      Factory<? extends T> factory = getServiceFactory();
+      if (factory.asyncOnly() && ThreadUtils.isMainThread()) {
+        onMainThreadGet();
+      }
+      int scope = mScope != Scope.DEFAULT ? mScope : factory.scope();
+      getInstance = (T) factory.getInstance(mServiceClass, scope);
+    } finally {
+      if (getInstance == null) {
+        onCreateFailed(failure);
+      } else if (failure != null) {
+        mFailure = null;
       }
     }
+    if (getInstance == null && withFallback) {
+      getInstance = getFallbackInstance(false);
+    }
     return getInstance;
   }
+
+  /**
+   * 是否与other来自同一个factory，用于多绑定去重
+   */
+  boolean isSameBinding(ServiceProperty<?> other) {
+    if (mFactoryProvider != null || other.mFactoryProvider != null) {
+      return mFactoryProvider == other.mFactoryProvider && mFactoryIndex == other.mFactoryIndex;
+    }
+    return mServiceFactory.getClass() == other.mServiceFactory.getClass();
+  }
+
+  /**
+   * 清除失败状态，下次get时重新调用newInstance。{@link RetryPolicy#NEVER}不生效。
+   */
+  public void invalidate() {
+    if (mRetryPolicy.retryOnInvalidate()) {
+      mFailure = null;
+    }
+  }
+
+  public long getLastUsedNanos() {
+    return mLastUsedNanos;
+  }
+
+  /**
+   * 开始记录所有ServiceProperty的使用时间，之前的get不会被记录
+   */
+  static void enableUsageTracking() {
+    sTrackUsage = true;
+  }
+
+  /**
+   * 启用trim时把已有的service视为刚使用过，避免之前未记录的被当成最久未使用
+   */
+  void markUsed(long nanos) {
+    mLastUsedNanos = nanos;
+  }
+
+  /**
+   * @return 缓存的可回收实例的{@link Evictable#sizeHint()}，没有时为0
+   */
+  long getSizeHint() {
+    Factory<? extends T> factory = mServiceFactory;
+    Evictable instance = factory != null ? factory.peekEvictable() : null;
+    return instance != null ? instance.sizeHint() : 0;
+  }
+
+  /**
+   * 释放缓存的实例，下次get时重新创建。只回收实现了{@link Evictable}的实例，
+   * factory未加载、PROTOTYPE和THREAD_LOCAL不回收
+   *
+   * @return 是否释放了实例
+   */
+  public boolean evict() {
+    Factory<? extends T> factory = mServiceFactory;
+    if (factory == null) {
+      return false;
+    }
+    int scope = mScope != Scope.DEFAULT ? mScope : factory.scope();
+    if (scope == Scope.PROTOTYPE || scope == Scope.THREAD_LOCAL) {
+      return false;
+    }
+    Object instance = factory.evict();
+    if (instance == null) {
+      return false;
+    }
+    ((Evictable) instance).onEvict();
+    return true;
+  }
+
+  private void onMainThreadGet() {
+    if (!mMainThreadGetLogged) {
+      mMainThreadGetLogged = true;
+      Log.w(TAG, mServiceClass.getName() + " is asyncOnly, use ServiceManager.getAsync instead",
+          new Throwable());
+    }
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    if (listener != null) {
+      listener.onMainThreadGet(mServiceClass);
+    }
+  }
+
+  /**
+   * 到达重试时间后只有一个线程获得重试机会，其余线程在本次重试结束前继续使用降级实现
+   */
+  private boolean claimRetry(Failure failure) {
+    if (!failure.mScheduled || System.nanoTime() - failure.mRetryAtNanos < 0) {
+      return false;
+    }
+    return sFailureUpdater.compareAndSet(this, failure,
+        new Failure(failure.mCount, false, 0));
+  }
+
+  private void onCreateFailed(Failure previous) {
+    mFailureCount.incrementAndGet();
+    if (mRetryPolicy == RetryPolicy.ALWAYS) {
+      return;
+    }
+    int count = previous != null ? previous.mCount + 1 : 1;
+    long delayMs = mRetryPolicy.retryDelayMs(count);
+    if (delayMs == RetryPolicy.NO_RETRY) {
+      mFailure = new Failure(count, false, 0);
+    } else {
+      mFailure = new Failure(count, true,
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs));
+    }
+  }
+
+  private T getFallbackInstance(boolean skipCreate) {
+    T fallback = mFallbackInstance;
+    if (fallback == null) {
+      // 优先使用编译期生成的空实现，没有时通过动态代理补充实现
+      fallback = (T) getServiceFactory().newStub();
+      int fallbackType = ServiceMetricsListener.FALLBACK_STUB;
+      if (fallback == null && mServiceClass.isInterface()) {
+        fallback = ProxyUtils.getInstance(mServiceClass);
+        fallbackType = ServiceMetricsListener.FALLBACK_PROXY;
+      }
+      if (fallback == null) {
+        fallbackType = ServiceMetricsListener.FALLBACK_NONE;
+      }
+      mFallbackType = fallbackType;
+      mFallbackInstance = fallback;
+    }
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    if (listener != null) {
+      int fallbackType = fallback == null ? ServiceMetricsListener.FALLBACK_NONE : mFallbackType;
+      listener.onFallback(mServiceClass, fallbackType, skipCreate);
+    }
+    return fallback;
+  }
+
+  private static final class Failure {
+    // 连续失败次数
+    final int mCount;
+    // 是否会在mRetryAtNanos之后自动重试
+    final boolean mScheduled;
+    final long mRetryAtNanos;
+
+    Failure(int count, boolean scheduled, long retryAtNanos) {
+      mCount = count;
+      mScheduled = scheduled;
+      mRetryAtNanos = retryAtNanos;
+    }
+  }
 }
@@ -1,10 +1,43 @@
 package com.kuaishou.commercial.utility.ioc.core;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetrics;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetricsListener;
+
+/**
+ * service的存储。传入{@link ConcurrentMap}时为并发模式：查找无锁，优先级注册通过CAS完成；
+ * 传入普通Map时需由调用方保证线程安全。
+ * <p>
+ * 每个注册过的接口会分配一个连续的slot，持有slot的调用方可以通过{@link #get(int)}直接按数组下标查找，
+ * 不需要hash；按Class查找时仍走Map。
+ */
 public class ServiceStore<Base> {
   private final Map<Class<? extends Base>, ServiceProperty<? extends Base>> mServiceMappings;
 
+  // slot的分配、扩容和写入都在mSlotLock下进行，读取无锁
+  private final Object mSlotLock = new Object();
+  private final Map<Class<? extends Base>, Integer> mSlotIndex = new HashMap<>();
+  private volatile AtomicReferenceArray<ServiceProperty<? extends Base>> mSlots =
+      new AtomicReferenceArray<>(0);
+  // 多绑定，与单绑定的mServiceMappings互相独立
+  private final ConcurrentHashMap<Class<? extends Base>, MultiBinding<? extends Base>>
+      mMultiBindings = new ConcurrentHashMap<>();
+  // 常驻的接口，不会被trim回收，与注册无关，重新注册后依然有效
+  private final Set<Class<? extends Base>> mPinned =
+      Collections.newSetFromMap(new ConcurrentHashMap<Class<? extends Base>, Boolean>());
+  private volatile BindingListener mBindingListener;
+  private volatile boolean mTrimEnabled;
+
   public ServiceStore(
       Map<Class<? extends Base>, ServiceProperty<? extends Base>> serviceMappings) {
     mServiceMappings = serviceMappings;
@@ -14,6 +47,10 @@ public class ServiceStore<Base> {
     if (serviceClass == null) {
       return null;
     }
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    if (listener != null) {
+      listener.onGet(serviceClass);
+    }
     ServiceProperty<? extends Base> serviceProperty = mServiceMappings.get(serviceClass);
     if (serviceProperty == null) {
       return null;
@@ -21,6 +58,200 @@ public class ServiceStore<Base> {
     return (T) serviceProperty.getInstance();
   }
 
+  public void setBindingListener(BindingListener listener) {
+    mBindingListener = listener;
+  }
+
+  /**
+   * 当前绑定实际生效的scope，没有绑定时返回{@link Scope#DEFAULT}
+   */
+  public int getScope(Class<? extends Base> tClass) {
+    ServiceProperty<? extends Base> serviceProperty = mServiceMappings.get(tClass);
+    return serviceProperty == null ? Scope.DEFAULT : serviceProperty.getScope();
+  }
+
+  public void invalidate(Class<? extends Base> tClass) {
+    ServiceProperty<? extends Base> serviceProperty = mServiceMappings.get(tClass);
+    if (serviceProperty != null) {
+      serviceProperty.invalidate();
+    }
+  }
+
+  /**
+   * 多绑定的全部实现，按优先级从高到低排序。结果会被缓存并共享，返回不可修改的列表
+   */
+  public <T extends Base> List<T> getAll(Class<T> serviceClass) {
+    MultiBinding<T> binding = multiBinding(serviceClass);
+    if (binding == null) {
+      return Collections.emptyList();
+    }
+    return binding.getAll();
+  }
+
+  /**
+   * mMultiBindings中接口与多绑定的类型由registerIntoSet保证一致
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends Base> MultiBinding<T> multiBinding(Class<T> serviceClass) {
+    return (MultiBinding<T>) mMultiBindings.get(serviceClass);
+  }
+
+  /**
+   * 注册到多绑定，不影响{@link #get(Class)}
+   */
+  public <T extends Base> boolean registerIntoSet(Class<T> tClass,
+      ServiceProperty<? extends T> property) {
+    if (!tClass.isInterface() || property == null) {
+      return false;
+    }
+    MultiBinding<T> binding = multiBinding(tClass);
+    if (binding == null) {
+      mMultiBindings.putIfAbsent(tClass, new MultiBinding<T>());
+      binding = multiBinding(tClass);
+    }
+    binding.add(property);
+    return true;
+  }
+
+  public void setPinned(Class<? extends Base> tClass, boolean pinned) {
+    if (pinned) {
+      mPinned.add(tClass);
+    } else {
+      mPinned.remove(tClass);
+    }
+  }
+
+  public boolean isPinned(Class<? extends Base> tClass) {
+    return mPinned.contains(tClass);
+  }
+
+  /**
+   * 开始记录service的使用时间，此时已注册的service视为刚使用过。只在首次调用时生效
+   */
+  public void enableTrim() {
+    if (mTrimEnabled) {
+      return;
+    }
+    synchronized (this) {
+      if (mTrimEnabled) {
+        return;
+      }
+      ServiceProperty.enableUsageTracking();
+      long now = System.nanoTime();
+      for (ServiceProperty<? extends Base> property : mServiceMappings.values()) {
+        property.markUsed(now);
+      }
+      mTrimEnabled = true;
+    }
+  }
+
+  /**
+   * 回收空闲超过idleNanos的非常驻service，按{@link Evictable#sizeHint()}从大到小，
+   * 相同时按最近使用时间从旧到新，最多回收maxCount个。只回收实现了{@link Evictable}的实例。
+   * 未调用{@link #enableTrim()}时先启用，本次不会回收空闲时间大于0的service
+   *
+   * @return 回收的个数
+   */
+  public int trim(long idleNanos, int maxCount) {
+    enableTrim();
+    long now = System.nanoTime();
+    // 排序期间get会更新使用时间，先记录快照
+    List<Candidate> candidates = new ArrayList<>();
+    for (Map.Entry<Class<? extends Base>, ServiceProperty<? extends Base>> entry
+        : mServiceMappings.entrySet()) {
+      ServiceProperty<? extends Base> property = entry.getValue();
+      long lastUsedNanos = property.getLastUsedNanos();
+      if (!mPinned.contains(entry.getKey()) && now - lastUsedNanos >= idleNanos) {
+        candidates.add(new Candidate(entry.getKey(), property, lastUsedNanos,
+            property.getSizeHint()));
+      }
+    }
+    Collections.sort(candidates, new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate o1, Candidate o2) {
+        if (o1.mSizeHint != o2.mSizeHint) {
+          return o1.mSizeHint > o2.mSizeHint ? -1 : 1;
+        }
+        long diff = o1.mLastUsedNanos - o2.mLastUsedNanos;
+        return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+      }
+    });
+    int evicted = 0;
+    for (int i = 0; i < candidates.size() && evicted < maxCount; i++) {
+      Candidate candidate = candidates.get(i);
+      if (candidate.mProperty.evict()) {
+        evicted++;
+        notifyBindingChanged(candidate.mServiceClass);
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * 按slot查找，slot由{@link #slotOf(Class)}获得
+   */
+  public <T extends Base> T get(int slot) {
+    AtomicReferenceArray<ServiceProperty<? extends Base>> slots = mSlots;
+    if (slot < 0 || slot >= slots.length()) {
+      return null;
+    }
+    ServiceProperty<? extends Base> serviceProperty = slots.get(slot);
+    if (serviceProperty == null) {
+      return null;
+    }
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    if (listener != null) {
+      listener.onGet(serviceProperty.getServiceClass());
+    }
+    return (T) serviceProperty.getInstance();
+  }
+
+  /**
+   * 获取接口的slot，没有则分配一个新的slot。同一个接口的slot在进程内不变。
+   */
+  public int slotOf(Class<? extends Base> tClass) {
+    synchronized (mSlotLock) {
+      return slotOfLocked(tClass);
+    }
+  }
+
+  private int slotOfLocked(Class<? extends Base> tClass) {
+    Integer slot = mSlotIndex.get(tClass);
+    if (slot != null) {
+      return slot;
+    }
+    int newSlot = mSlotIndex.size();
+    growSlotsLocked(newSlot + 1, mSlots.length() * 2);
+    mSlotIndex.put(tClass, newSlot);
+    mSlots.set(newSlot, mServiceMappings.get(tClass));
+    return newSlot;
+  }
+
+  /**
+   * 预留count个slot，编译期生成的register在注册前按模块内的service个数调用，避免逐个扩容
+   */
+  public void reserveSlots(int count) {
+    synchronized (mSlotLock) {
+      growSlotsLocked(mSlotIndex.size() + count, 0);
+    }
+  }
+
+  private void growSlotsLocked(int minCapacity, int preferredCapacity) {
+    AtomicReferenceArray<ServiceProperty<? extends Base>> slots = mSlots;
+    if (slots.length() >= minCapacity) {
+      return;
+    }
+    AtomicReferenceArray<ServiceProperty<? extends Base>> newSlots =
+        new AtomicReferenceArray<>(Math.max(minCapacity, preferredCapacity));
+    for (int i = 0; i < slots.length(); i++) {
+      newSlots.set(i, slots.get(i));
+    }
+    mSlots = newSlots;
+  }
+
+  /**
+   * @return 注册是否成功，已有更高优先级的service时返回false
+   */
   public boolean registerServiceProperty(Class<? extends Base> tClass,
       ServiceProperty<? extends Base> property) {
     // 非接口类不能注册，实现类不能注册，需要Base接口的子类接口
@@ -30,11 +261,85 @@ public class ServiceStore<Base> {
     if (property == null) {
       return false;
     }
-    ServiceProperty<? extends Base> getValue = mServiceMappings.get(tClass);
-    if (getValue != null && getValue.getPriority() > property.getPriority()) {
-      return false;
+    boolean registered;
+    if (mServiceMappings instanceof ConcurrentMap) {
+      registered = compareAndSetProperty(
+          (ConcurrentMap<Class<? extends Base>, ServiceProperty<? extends Base>>) mServiceMappings,
+          tClass, property);
+    } else {
+      ServiceProperty<? extends Base> getValue = mServiceMappings.get(tClass);
+      registered = getValue == null || getValue.getPriority() <= property.getPriority();
+      if (registered) {
+        mServiceMappings.put(tClass, property);
+      }
+      if (getValue != null) {
+        onPriorityOverride(tClass, getValue, property, registered);
+      }
+    }
+    if (registered) {
+      publishSlot(tClass);
+      notifyBindingChanged(tClass);
+    }
+    return registered;
+  }
+
+  private boolean compareAndSetProperty(
+      ConcurrentMap<Class<? extends Base>, ServiceProperty<? extends Base>> serviceMappings,
+      Class<? extends Base> tClass, ServiceProperty<? extends Base> property) {
+    for (; ; ) {
+      ServiceProperty<? extends Base> current = serviceMappings.putIfAbsent(tClass, property);
+      if (current == null) {
+        return true;
+      }
+      if (current.getPriority() > property.getPriority()) {
+        onPriorityOverride(tClass, current, property, false);
+        return false;
+      }
+      // 期间被其他线程替换则重新比较
+      if (serviceMappings.replace(tClass, current, property)) {
+        onPriorityOverride(tClass, current, property, true);
+        return true;
+      }
+    }
+  }
+
+  private static void onPriorityOverride(Class<?> tClass, ServiceProperty<?> current,
+      ServiceProperty<?> property, boolean replaced) {
+    ServiceMetricsListener listener = ServiceMetrics.getListener();
+    if (listener != null) {
+      listener.onPriorityOverride(tClass, current.getPriority(), property.getPriority(), replaced);
+    }
+  }
+
+  private void notifyBindingChanged(Class<?> tClass) {
+    BindingListener listener = mBindingListener;
+    if (listener != null) {
+      listener.onBindingChanged(tClass);
+    }
+  }
+
+  /**
+   * 在锁内重新读取Map中的最终值写入slot，并发注册时最后一个写入者读到的一定是最新值
+   */
+  private void publishSlot(Class<? extends Base> tClass) {
+    synchronized (mSlotLock) {
+      int slot = slotOfLocked(tClass);
+      mSlots.set(slot, mServiceMappings.get(tClass));
+    }
+  }
+
+  private static final class Candidate {
+    final Class<?> mServiceClass;
+    final ServiceProperty<?> mProperty;
+    final long mLastUsedNanos;
+    final long mSizeHint;
+
+    Candidate(Class<?> serviceClass, ServiceProperty<?> property, long lastUsedNanos,
+        long sizeHint) {
+      mServiceClass = serviceClass;
+      mProperty = property;
+      mLastUsedNanos = lastUsedNanos;
+      mSizeHint = sizeHint;
     }
-    ServiceProperty<? extends Base> putValue = mServiceMappings.put(tClass, property);
-    return putValue != null;
   }
 }
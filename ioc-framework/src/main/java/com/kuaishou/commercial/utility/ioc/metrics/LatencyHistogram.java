@@ -0,0 +1,104 @@
+package com.kuaishou.commercial.utility.ioc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的对数线性直方图，每个2的幂区间再均分为{@link #SUB_BUCKETS}份，相对误差约12.5%。
+ * 记录只有几次原子操作，不分配内存。
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // 覆盖到2^40纳秒，约18分钟，更大的值计入最后的溢出桶，其分位取记录到的最大值
+  private static final int MAX_EXPONENT = 40;
+  private static final int OVERFLOW = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+  private static final int BUCKETS = OVERFLOW + 1;
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mSum = new AtomicLong();
+  private final AtomicLong mMax = new AtomicLong();
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    mBuckets.incrementAndGet(indexOf(value));
+    mCount.incrementAndGet();
+    mSum.addAndGet(value);
+    long max;
+    while (value > (max = mMax.get())) {
+      if (mMax.compareAndSet(max, value)) {
+        break;
+      }
+    }
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  public long getMax() {
+    return mMax.get();
+  }
+
+  public long getMean() {
+    long count = mCount.get();
+    return count == 0 ? 0 : mSum.get() / count;
+  }
+
+  /**
+   * @param percentile 0到100
+   * @return 对应分位所在桶的上界
+   */
+  public long getPercentile(double percentile) {
+    long count = mCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += mBuckets.get(i);
+      if (seen >= target) {
+        return Math.min(upperBoundOf(i), mMax.get());
+      }
+    }
+    return mMax.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      mBuckets.set(i, 0);
+    }
+    mCount.set(0);
+    mSum.set(0);
+    mMax.set(0);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent >= MAX_EXPONENT) {
+      return OVERFLOW;
+    }
+    int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  static long upperBoundOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    if (index == OVERFLOW) {
+      return Long.MAX_VALUE;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = index % SUB_BUCKETS;
+    long step = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (sub + 1) * step - 1;
+  }
+}
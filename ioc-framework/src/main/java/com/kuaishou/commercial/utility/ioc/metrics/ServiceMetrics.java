@@ -0,0 +1,25 @@
+package com.kuaishou.commercial.utility.ioc.metrics;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 容器监控的入口。没有设置listener时埋点只有一次volatile读取和判空。
+ */
+public class ServiceMetrics {
+  /**
+   * 埋点处只读取一次到局部变量，volatile读在没有写竞争时与普通读开销相当
+   */
+  private static volatile ServiceMetricsListener sListener;
+
+  private ServiceMetrics() {
+  }
+
+  public static void setListener(@Nullable ServiceMetricsListener listener) {
+    sListener = listener;
+  }
+
+  @Nullable
+  public static ServiceMetricsListener getListener() {
+    return sListener;
+  }
+}
@@ -0,0 +1,157 @@
+package com.kuaishou.commercial.utility.ioc.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 内置的统计实现，按service聚合计数和耗时分布，可随时{@link #dump()}输出。
+ */
+public class ServiceMetricsAggregator implements ServiceMetricsListener {
+  private final ConcurrentHashMap<Class<?>, ServiceStats> mStats = new ConcurrentHashMap<>();
+
+  /**
+   * 单个service的统计
+   */
+  public static class ServiceStats {
+    public final AtomicLong getCount = new AtomicLong();
+    public final AtomicLong createFailureCount = new AtomicLong();
+    public final AtomicLong stubFallbackCount = new AtomicLong();
+    public final AtomicLong proxyFallbackCount = new AtomicLong();
+    public final AtomicLong nullFallbackCount = new AtomicLong();
+    public final AtomicLong skipCreateCount = new AtomicLong();
+    public final AtomicLong overrideCount = new AtomicLong();
+    public final AtomicLong rejectCount = new AtomicLong();
+    public final AtomicLong mainThreadGetCount = new AtomicLong();
+    public final LatencyHistogram createNanos = new LatencyHistogram();
+    public final LatencyHistogram lockWaitNanos = new LatencyHistogram();
+  }
+
+  @NonNull
+  public ServiceStats statsOf(@NonNull Class<?> serviceClass) {
+    ServiceStats stats = mStats.get(serviceClass);
+    if (stats == null) {
+      ServiceStats newStats = new ServiceStats();
+      stats = mStats.putIfAbsent(serviceClass, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  @NonNull
+  public Map<Class<?>, ServiceStats> getStats() {
+    return Collections.<Class<?>, ServiceStats>unmodifiableMap(mStats);
+  }
+
+  public void reset() {
+    mStats.clear();
+  }
+
+  @Override
+  public void onGet(Class<?> serviceClass) {
+    statsOf(serviceClass).getCount.incrementAndGet();
+  }
+
+  @Override
+  public void onCreate(Class<?> serviceClass, long costNanos, boolean success) {
+    ServiceStats stats = statsOf(serviceClass);
+    stats.createNanos.record(costNanos);
+    if (!success) {
+      stats.createFailureCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onLockWait(Class<?> serviceClass, long waitNanos) {
+    statsOf(serviceClass).lockWaitNanos.record(waitNanos);
+  }
+
+  @Override
+  public void onFallback(Class<?> serviceClass, int fallbackType, boolean skipCreate) {
+    ServiceStats stats = statsOf(serviceClass);
+    if (fallbackType == FALLBACK_STUB) {
+      stats.stubFallbackCount.incrementAndGet();
+    } else if (fallbackType == FALLBACK_PROXY) {
+      stats.proxyFallbackCount.incrementAndGet();
+    } else {
+      stats.nullFallbackCount.incrementAndGet();
+    }
+    if (skipCreate) {
+      stats.skipCreateCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onPriorityOverride(Class<?> serviceClass, int oldPriority, int newPriority,
+      boolean replaced) {
+    ServiceStats stats = statsOf(serviceClass);
+    if (replaced) {
+      stats.overrideCount.incrementAndGet();
+    } else {
+      stats.rejectCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onMainThreadGet(Class<?> serviceClass) {
+    statsOf(serviceClass).mainThreadGetCount.incrementAndGet();
+  }
+
+  /**
+   * 按get次数降序输出统计，耗时单位微秒
+   */
+  @NonNull
+  public String dump() {
+    List<Map.Entry<Class<?>, ServiceStats>> entries = new ArrayList<>(mStats.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<Class<?>, ServiceStats>>() {
+      @Override
+      public int compare(Map.Entry<Class<?>, ServiceStats> o1,
+          Map.Entry<Class<?>, ServiceStats> o2) {
+        long diff = o2.getValue().getCount.get() - o1.getValue().getCount.get();
+        return diff > 0 ? 1 : diff < 0 ? -1 : o1.getKey().getName().compareTo(o2.getKey().getName());
+      }
+    });
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<Class<?>, ServiceStats> entry : entries) {
+      ServiceStats stats = entry.getValue();
+      sb.append(entry.getKey().getName())
+          .append(" get=").append(stats.getCount.get())
+          .append(" createFail=").append(stats.createFailureCount.get())
+          .append(" fallback(stub/proxy/null)=").append(stats.stubFallbackCount.get())
+          .append('/').append(stats.proxyFallbackCount.get())
+          .append('/').append(stats.nullFallbackCount.get())
+          .append(" skipCreate=").append(stats.skipCreateCount.get())
+          .append(" override/reject=").append(stats.overrideCount.get())
+          .append('/').append(stats.rejectCount.get())
+          .append(" mainThreadGet=").append(stats.mainThreadGetCount.get());
+      appendHistogram(sb, " create", stats.createNanos);
+      appendHistogram(sb, " lockWait", stats.lockWaitNanos);
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram histogram) {
+    if (histogram.getCount() == 0) {
+      return;
+    }
+    sb.append(name).append("(us) n=").append(histogram.getCount())
+        .append(" mean=").append(toMicros(histogram.getMean()))
+        .append(" p50=").append(toMicros(histogram.getPercentile(50)))
+        .append(" p99=").append(toMicros(histogram.getPercentile(99)))
+        .append(" max=").append(toMicros(histogram.getMax()));
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
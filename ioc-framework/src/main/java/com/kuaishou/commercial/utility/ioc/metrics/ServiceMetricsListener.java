@@ -0,0 +1,57 @@
+package com.kuaishou.commercial.utility.ioc.metrics;
+
+/**
+ * 容器运行时的事件回调，通过{@link ServiceMetrics#setListener}注册，可能在任意线程回调，实现需要线程安全且足够轻量。
+ */
+public interface ServiceMetricsListener {
+  /**
+   * 降级实现是编译期生成的空实现
+   */
+  int FALLBACK_STUB = 1;
+  /**
+   * 降级实现是动态代理
+   */
+  int FALLBACK_PROXY = 2;
+  /**
+   * 没有可用的降级实现，返回null
+   */
+  int FALLBACK_NONE = 3;
+
+  /**
+   * 每次get
+   */
+  void onGet(Class<?> serviceClass);
+
+  /**
+   * Factory.newInstance的耗时，只在构造时回调
+   *
+   * @param success newInstance是否返回了非null
+   */
+  void onCreate(Class<?> serviceClass, long costNanos, boolean success);
+
+  /**
+   * 等待构造锁的耗时，只在未构造完成时的慢路径回调
+   */
+  void onLockWait(Class<?> serviceClass, long waitNanos);
+
+  /**
+   * 返回了降级实现
+   *
+   * @param fallbackType {@link #FALLBACK_STUB}、{@link #FALLBACK_PROXY}或{@link #FALLBACK_NONE}
+   * @param skipCreate 是否因失败缓存跳过了newInstance
+   */
+  void onFallback(Class<?> serviceClass, int fallbackType, boolean skipCreate);
+
+  /**
+   * 同一接口再次注册时的优先级比较
+   *
+   * @param replaced 新注册的是否覆盖了已有的
+   */
+  void onPriorityOverride(Class<?> serviceClass, int oldPriority, int newPriority,
+      boolean replaced);
+
+  /**
+   * 在主线程同步get了只允许异步获取的service
+   */
+  void onMainThreadGet(Class<?> serviceClass);
+}
@@ -0,0 +1,44 @@
+package com.kuaishou.commercial.utility.ioc.register;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 编译期生成在各模块的CommercialServiceRegister上，记录模块内的绑定。
+ * transform据此在构建期合并所有模块的注册，同一接口只保留优先级最高的factory。
+ * 各数组按下标一一对应，下标同时是延迟注册时的factory下标。
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.CLASS)
+public @interface RegisterBindings {
+  Class<?>[] services();
+
+  Class<?>[] factories();
+
+  int[] priorities();
+
+  boolean[] intoSet();
+
+  /**
+   * 是否延迟注册，是时register类本身是FactoryProvider
+   */
+  boolean lazy() default false;
+
+  /**
+   * 依赖在前的预热顺序
+   */
+  Class<?>[] warmUpOrder() default {};
+
+  /**
+   * 预创建的时机，见{@link com.kuaishou.commercial.utility.ioc.core.Preload}，
+   * 为空表示模块内都不预创建，否则与factories一一对应
+   */
+  int[] preloads() default {};
+
+  /**
+   * 预创建的优先级，与preloads一一对应
+   */
+  int[] preloadPriorities() default {};
+}
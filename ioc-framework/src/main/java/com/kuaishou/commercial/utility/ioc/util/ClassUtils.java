@@ -27,5 +27,25 @@ public class ClassUtils {
   public static boolean isString(Class<?> clss) {
     return clss == String.class;
   }
+
+  /**
+   * 数值类型对应的0值，装箱类型与返回值类型一致，避免代理返回时拆箱出错
+   */
+  public static Object zeroOf(Class<?> clss) {
+    if (clss == Long.TYPE || clss == Long.class) {
+      return 0L;
+    } else if (clss == Float.TYPE || clss == Float.class) {
+      return 0f;
+    } else if (clss == Double.TYPE || clss == Double.class) {
+      return 0d;
+    } else if (clss == Character.TYPE || clss == Character.class) {
+      return (char) 0;
+    } else if (clss == Byte.TYPE || clss == Byte.class) {
+      return (byte) 0;
+    } else if (clss == Short.TYPE || clss == Short.class) {
+      return (short) 0;
+    }
+    return 0;
+  }
 }
 
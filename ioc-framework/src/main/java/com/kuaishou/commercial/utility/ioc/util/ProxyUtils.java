@@ -3,29 +3,38 @@ package com.kuaishou.commercial.utility.ioc.util;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ProxyUtils {
   private ProxyUtils() {
   }
 
+  // 返回值为接口时的嵌套代理，按接口缓存，避免每次调用都创建
+  private static final ConcurrentHashMap<Class<?>, Object> sNestedProxies =
+      new ConcurrentHashMap<>();
+
   public static final InvocationHandler sInvocationHandler = new InvocationHandler() {
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
       Class<?> retType = method.getReturnType();
-      if (ClassUtils.isInteger(retType)) {
-        return 0;
+      if (ClassUtils.isNumber(retType)) {
+        return ClassUtils.zeroOf(retType);
       } else if (ClassUtils.isBoolean(retType)) {
         return false;
       } else if (ClassUtils.isString(retType)) {
         return "";
       } else if (retType.isInterface()) {
-        Object object;
+        Object object = sNestedProxies.get(retType);
+        if (object != null) {
+          return object;
+        }
         try {
           object = newProxy(retType, this);
         } catch (Exception ignore) {
           return null;
         }
-        return object;
+        Object previous = sNestedProxies.putIfAbsent(retType, object);
+        return previous != null ? previous : object;
       } else {
         return null;
       }
@@ -0,0 +1,58 @@
+package com.kuaishou.commercial.utility.ioc.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+public class ThreadUtils {
+  // 测试中替换的主线程，为null时取主线程Looper的线程
+  private static volatile Thread sMainThread;
+
+  private ThreadUtils() {
+  }
+
+  public static boolean isMainThread() {
+    Thread mainThread = sMainThread;
+    if (mainThread == null) {
+      mainThread = Looper.getMainLooper().getThread();
+    }
+    return mainThread == Thread.currentThread();
+  }
+
+  /**
+   * 仅供测试替换主线程，传null恢复
+   */
+  public static void setMainThread(@Nullable Thread mainThread) {
+    sMainThread = mainThread;
+  }
+
+  /**
+   * 按CPU核数限制大小的后台线程池，空闲线程超时后回收
+   *
+   * @param threadNamePrefix 线程名前缀，后接序号
+   */
+  @NonNull
+  public static Executor newDefaultExecutor(@NonNull final String threadNamePrefix) {
+    int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), new ThreadFactory() {
+          private final AtomicInteger mCount = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadNamePrefix + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,183 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kuaishou.commercial.utility.ioc.core.Factory;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetrics;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetricsAggregator;
+import com.kuaishou.commercial.utility.ioc.util.ThreadUtils;
+
+/**
+ * 异步获取在线程池中构造，同时请求共享一次构造，回调在主线程
+ */
+public class AsyncServiceTest {
+
+  interface SlowService extends Service {
+  }
+
+  interface CachedService extends Service {
+  }
+
+  interface CallbackService extends Service {
+  }
+
+  interface AsyncOnlyService extends Service {
+  }
+
+  private static class Impl implements SlowService, CachedService, CallbackService,
+      AsyncOnlyService {
+  }
+
+  private static class BlockingFactory<T extends Service> extends Factory<T> {
+    final CountDownLatch mRelease = new CountDownLatch(1);
+    final AtomicInteger mCalls = new AtomicInteger();
+
+    @Override
+    protected T newInstance() {
+      mCalls.incrementAndGet();
+      try {
+        mRelease.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return (T) new Impl();
+    }
+  }
+
+  private static class RecordingCallback<T extends Service> implements ServiceCallback<T> {
+    final CountDownLatch mDone = new CountDownLatch(1);
+    volatile T mService;
+    volatile Thread mThread;
+
+    @Override
+    public void onService(T service) {
+      mService = service;
+      mThread = Thread.currentThread();
+      mDone.countDown();
+    }
+
+    T await() throws InterruptedException {
+      assertTrue(mDone.await(5, TimeUnit.SECONDS));
+      return mService;
+    }
+  }
+
+  private ExecutorService mExecutor;
+  // 模拟主线程，回调post到这里
+  private ExecutorService mMainExecutor;
+  private Thread mMainThread;
+
+  @Before
+  public void setUp() throws Exception {
+    mExecutor = Executors.newCachedThreadPool();
+    ServiceManager.setAsyncExecutor(mExecutor);
+    mMainExecutor = Executors.newSingleThreadExecutor();
+    mMainThread = mMainExecutor.submit(new Callable<Thread>() {
+      @Override
+      public Thread call() {
+        return Thread.currentThread();
+      }
+    }).get(5, TimeUnit.SECONDS);
+    ServiceFuture.setMainExecutor(mMainExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+    mMainExecutor.shutdownNow();
+    ServiceFuture.setMainExecutor(null);
+    ThreadUtils.setMainThread(null);
+    ServiceMetrics.setListener(null);
+  }
+
+  @Test
+  public void concurrentRequestsShareConstruction() throws Exception {
+    BlockingFactory<SlowService> factory = new BlockingFactory<>();
+    ServiceManager.register(SlowService.class, factory);
+    Future<SlowService> first = ServiceManager.getAsync(SlowService.class);
+    Future<SlowService> second = ServiceManager.getAsync(SlowService.class);
+    assertSame(first, second);
+    factory.mRelease.countDown();
+    SlowService service = first.get(5, TimeUnit.SECONDS);
+    assertSame(service, second.get());
+    assertEquals(1, factory.mCalls.get());
+  }
+
+  @Test
+  public void cachedInstanceCompletesImmediately() throws Exception {
+    BlockingFactory<CachedService> factory = new BlockingFactory<>();
+    factory.mRelease.countDown();
+    ServiceManager.register(CachedService.class, factory);
+    CachedService service = ServiceManager.getAsync(CachedService.class).get(5, TimeUnit.SECONDS);
+
+    Future<CachedService> future = ServiceManager.getAsync(CachedService.class);
+    assertTrue(future.isDone());
+    assertSame(service, future.get());
+    assertEquals(1, factory.mCalls.get());
+  }
+
+  @Test
+  public void callbackDeliveredOnMainThread() throws Exception {
+    BlockingFactory<CallbackService> factory = new BlockingFactory<>();
+    ServiceManager.register(CallbackService.class, factory);
+    RecordingCallback<CallbackService> pending = new RecordingCallback<>();
+    ServiceManager.getAsync(CallbackService.class, pending);
+    //构造完成前不回调
+    assertEquals(1, pending.mDone.getCount());
+
+    factory.mRelease.countDown();
+    CallbackService service = pending.await();
+    assertSame(ServiceManager.get(CallbackService.class), service);
+    assertSame(mMainThread, pending.mThread);
+
+    //已有实例时同样post到主线程
+    RecordingCallback<CallbackService> cached = new RecordingCallback<>();
+    ServiceManager.getAsync(CallbackService.class, cached);
+    assertSame(service, cached.await());
+    assertSame(mMainThread, cached.mThread);
+    assertEquals(1, factory.mCalls.get());
+  }
+
+  @Test
+  public void asyncOnlyReportsMainThreadGet() throws Exception {
+    ServiceMetricsAggregator aggregator = new ServiceMetricsAggregator();
+    ServiceMetrics.setListener(aggregator);
+    ThreadUtils.setMainThread(Thread.currentThread());
+    ServiceManager.register(AsyncOnlyService.class, new Factory<AsyncOnlyService>() {
+      @Override
+      protected boolean asyncOnly() {
+        return true;
+      }
+
+      @Override
+      protected AsyncOnlyService newInstance() {
+        return new Impl();
+      }
+    });
+
+    //线程池中构造不上报
+    AsyncOnlyService service =
+        ServiceManager.getAsync(AsyncOnlyService.class).get(5, TimeUnit.SECONDS);
+    assertEquals(0, aggregator.statsOf(AsyncOnlyService.class).mainThreadGetCount.get());
+
+    //主线程同步get每次都上报
+    assertSame(service, ServiceManager.get(AsyncOnlyService.class));
+    assertSame(service, ServiceManager.get(AsyncOnlyService.class));
+    assertEquals(2, aggregator.statsOf(AsyncOnlyService.class).mainThreadGetCount.get());
+  }
+}
@@ -0,0 +1,103 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.kuaishou.commercial.utility.ioc.core.Evictable;
+import com.kuaishou.commercial.utility.ioc.core.Factory;
+import com.kuaishou.commercial.utility.ioc.core.Scope;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 句柄缓存单例，绑定替换或实例回收后自动失效
+ */
+public class LazyTest {
+
+  interface CachedService extends Service {
+  }
+
+  interface ReplacedService extends Service {
+  }
+
+  interface PrototypeService extends Service {
+  }
+
+  interface TrimmedService extends Service {
+  }
+
+  private static class CountingFactory<T extends Service> extends Factory<T> {
+    private final int mScope;
+    int mCalls;
+
+    CountingFactory(int scope) {
+      mScope = scope;
+    }
+
+    @Override
+    protected T newInstance() {
+      mCalls++;
+      return (T) new Impl();
+    }
+
+    @Override
+    protected int scope() {
+      return mScope;
+    }
+  }
+
+  // 只有Evictable的实例会被trim回收
+  private static class Impl implements CachedService, ReplacedService, PrototypeService,
+      TrimmedService, Evictable {
+    @Override
+    public void onEvict() {
+    }
+  }
+
+  @Test
+  public void sharedHandleCachesSingleton() {
+    CountingFactory<CachedService> factory = new CountingFactory<>(Scope.SINGLETON);
+    ServiceManager.register(CachedService.class, factory);
+    Lazy<CachedService> lazy = ServiceManager.lazy(CachedService.class);
+    assertSame(lazy, ServiceManager.lazy(CachedService.class));
+    CachedService first = lazy.get();
+    assertSame(first, lazy.get());
+    assertSame(first, ServiceManager.get(CachedService.class));
+    assertEquals(1, factory.mCalls);
+  }
+
+  @Test
+  public void replacedBindingInvalidatesHandle() {
+    ServiceManager.register(ReplacedService.class, new CountingFactory<ReplacedService>(
+        Scope.SINGLETON), 0);
+    Lazy<ReplacedService> lazy = ServiceManager.lazy(ReplacedService.class);
+    ReplacedService old = lazy.get();
+    assertSame(old, lazy.get());
+
+    ServiceManager.register(ReplacedService.class, new CountingFactory<ReplacedService>(
+        Scope.SINGLETON), 10);
+    ReplacedService replaced = lazy.get();
+    assertNotSame(old, replaced);
+    assertSame(ServiceManager.get(ReplacedService.class), replaced);
+  }
+
+  @Test
+  public void prototypeNotCached() {
+    ServiceManager.register(PrototypeService.class, new CountingFactory<PrototypeService>(
+        Scope.PROTOTYPE));
+    Lazy<PrototypeService> lazy = ServiceManager.lazy(PrototypeService.class);
+    assertNotSame(lazy.get(), lazy.get());
+  }
+
+  @Test
+  public void evictedInstanceNotReturned() {
+    ServiceManager.register(TrimmedService.class, new CountingFactory<TrimmedService>(
+        Scope.SINGLETON));
+    Lazy<TrimmedService> lazy = ServiceManager.lazy(TrimmedService.class);
+    TrimmedService old = lazy.get();
+    ServiceManager.sManager.trim(0, Integer.MAX_VALUE);
+    assertNotSame(old, lazy.get());
+  }
+}
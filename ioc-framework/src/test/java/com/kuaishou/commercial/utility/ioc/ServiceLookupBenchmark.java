@@ -0,0 +1,113 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.kuaishou.commercial.utility.ioc.core.Factory;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * get(Class)与插件改写后的get(slot)的耗时对比，按JMH的方式先预热再多轮测量。
+ * 默认跳过，运行时加-Dioc.benchmark=true
+ */
+public class ServiceLookupBenchmark {
+  private static final int WARM_UP_ROUNDS = 5;
+  private static final int MEASURE_ROUNDS = 5;
+  private static final int OPS_PER_ROUND = 20_000_000;
+
+  interface ServiceA extends Service {
+  }
+
+  interface ServiceB extends Service {
+  }
+
+  interface ServiceC extends Service {
+  }
+
+  interface ServiceD extends Service {
+  }
+
+  private static class Impl implements ServiceA, ServiceB, ServiceC, ServiceD {
+  }
+
+  // 个数需为2的幂，循环中按位与取下标
+  private static final List<Class<? extends Service>> SERVICES =
+      Arrays.<Class<? extends Service>>asList(ServiceA.class, ServiceB.class, ServiceC.class,
+          ServiceD.class);
+
+  // 防止JIT消除查找，效果同JMH的Blackhole
+  private static int sSink;
+
+  private interface Lookup {
+    Service get(int i);
+  }
+
+  @Test
+  public void getByClassVsSlot() {
+    assumeTrue(Boolean.getBoolean("ioc.benchmark"));
+    final Impl impl = new Impl();
+    final int[] slots = new int[SERVICES.size()];
+    for (int i = 0; i < slots.length; i++) {
+      register(SERVICES.get(i), impl);
+      slots[i] = ServiceManager.slotOf(SERVICES.get(i));
+      assertSame(impl, ServiceManager.get(slots[i]));
+    }
+
+    double byClass = measure(new Lookup() {
+      @Override
+      public Service get(int i) {
+        return ServiceManager.get(SERVICES.get(i));
+      }
+    });
+    double bySlot = measure(new Lookup() {
+      @Override
+      public Service get(int i) {
+        return ServiceManager.get(slots[i]);
+      }
+    });
+    System.out.println(String.format(Locale.US,
+        "get(Class): %.2f ns/op, get(slot): %.2f ns/op", byClass, bySlot));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void register(Class<? extends Service> serviceClass, final Impl impl) {
+    ServiceManager.register((Class<Service>) serviceClass, new Factory<Service>() {
+      @Override
+      protected Service newInstance() {
+        return impl;
+      }
+    });
+  }
+
+  /**
+   * @return 测量轮中最好的一轮的平均耗时，单位纳秒
+   */
+  private static double measure(Lookup lookup) {
+    for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+      run(lookup);
+    }
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < MEASURE_ROUNDS; round++) {
+      best = Math.min(best, run(lookup));
+    }
+    return (double) best / OPS_PER_ROUND;
+  }
+
+  private static long run(Lookup lookup) {
+    int mask = SERVICES.size() - 1;
+    int sink = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < OPS_PER_ROUND; i++) {
+      sink += lookup.get(i & mask).hashCode();
+    }
+    long cost = System.nanoTime() - start;
+    sSink += sink;
+    return cost;
+  }
+}
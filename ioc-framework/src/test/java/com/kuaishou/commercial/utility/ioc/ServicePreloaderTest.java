@@ -0,0 +1,183 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.kuaishou.commercial.utility.ioc.core.Factory;
+import com.kuaishou.commercial.utility.ioc.core.Preload;
+import com.kuaishou.commercial.utility.ioc.core.Scope;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 按优先级预创建，IDLE的等到主线程空闲，取消后不再创建
+ */
+public class ServicePreloaderTest {
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  interface LowService extends Service {
+  }
+
+  interface HighService extends Service {
+  }
+
+  interface MiddleService extends Service {
+  }
+
+  interface CancelledService extends Service {
+  }
+
+  interface EagerService extends Service {
+  }
+
+  interface IdleLowService extends Service {
+  }
+
+  interface IdleHighService extends Service {
+  }
+
+  interface IdleCancelledService extends Service {
+  }
+
+  interface WeakService extends Service {
+  }
+
+  interface SoftService extends Service {
+  }
+
+  private static class Impl implements LowService, HighService, MiddleService,
+      CancelledService, EagerService, IdleLowService, IdleHighService, IdleCancelledService,
+      WeakService, SoftService {
+  }
+
+  /**
+   * 记录提交的任务，由测试模拟主线程空闲
+   */
+  private static class IdleExecutor implements Executor {
+    final List<Runnable> mPending = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      mPending.add(command);
+    }
+
+    void idle() {
+      for (Runnable runnable : mPending) {
+        runnable.run();
+      }
+      mPending.clear();
+    }
+  }
+
+  private static class RecordingFactory<T extends Service> extends Factory<T> {
+    private final String mName;
+    private final List<String> mCreated;
+
+    RecordingFactory(String name, List<String> created) {
+      mName = name;
+      mCreated = created;
+    }
+
+    @Override
+    protected T newInstance() {
+      mCreated.add(mName);
+      return (T) new Impl();
+    }
+  }
+
+  @Test
+  public void preloadsByPriority() {
+    List<String> created = new ArrayList<>();
+    ServiceManager.register(LowService.class, new RecordingFactory<LowService>("low", created));
+    ServiceManager.register(HighService.class,
+        new RecordingFactory<HighService>("high", created));
+    ServiceManager.register(MiddleService.class,
+        new RecordingFactory<MiddleService>("middle", created));
+    ServicePreloader preloader = new ServicePreloader();
+    preloader.add(LowService.class, Preload.EAGER, 0);
+    preloader.add(HighService.class, Preload.EAGER, 10);
+    preloader.add(MiddleService.class, Preload.EAGER, 5);
+    preloader.start(DIRECT);
+    assertEquals(Arrays.asList("high", "middle", "low"), created);
+
+    //预创建的就是之后get到的单例
+    ServiceManager.get(HighService.class);
+    preloader.start(DIRECT);
+    assertEquals(3, created.size());
+  }
+
+  @Test
+  public void cancelledBeforeStart() {
+    List<String> created = new ArrayList<>();
+    ServiceManager.register(CancelledService.class,
+        new RecordingFactory<CancelledService>("cancelled", created));
+    ServicePreloader preloader = new ServicePreloader();
+    preloader.add(CancelledService.class, Preload.EAGER, 0);
+    preloader.cancel();
+    preloader.start(DIRECT);
+    assertTrue(created.isEmpty());
+  }
+
+  @Test
+  public void idleWaitsForMainThreadIdle() {
+    List<String> created = new ArrayList<>();
+    ServiceManager.register(EagerService.class,
+        new RecordingFactory<EagerService>("eager", created));
+    ServiceManager.register(IdleLowService.class,
+        new RecordingFactory<IdleLowService>("idleLow", created));
+    ServiceManager.register(IdleHighService.class,
+        new RecordingFactory<IdleHighService>("idleHigh", created));
+    ServicePreloader preloader = new ServicePreloader();
+    IdleExecutor idleExecutor = new IdleExecutor();
+    preloader.setIdleExecutor(idleExecutor);
+    preloader.add(IdleLowService.class, Preload.IDLE, 0);
+    preloader.add(EagerService.class, Preload.EAGER, 0);
+    preloader.add(IdleHighService.class, Preload.IDLE, 1);
+    preloader.start(DIRECT);
+    assertEquals(Arrays.asList("eager"), created);
+    assertEquals(1, idleExecutor.mPending.size());
+
+    idleExecutor.idle();
+    assertEquals(Arrays.asList("eager", "idleHigh", "idleLow"), created);
+  }
+
+  @Test
+  public void cancelledBeforeIdle() {
+    List<String> created = new ArrayList<>();
+    ServiceManager.register(IdleCancelledService.class,
+        new RecordingFactory<IdleCancelledService>("idleCancelled", created));
+    ServicePreloader preloader = new ServicePreloader();
+    IdleExecutor idleExecutor = new IdleExecutor();
+    preloader.setIdleExecutor(idleExecutor);
+    preloader.add(IdleCancelledService.class, Preload.IDLE, 0);
+    preloader.start(DIRECT);
+    preloader.cancel();
+    idleExecutor.idle();
+    assertTrue(created.isEmpty());
+  }
+
+  @Test
+  public void skipsReclaimableScopes() {
+    List<String> created = new ArrayList<>();
+    ServiceManager.register(WeakService.class, new RecordingFactory<WeakService>("weak", created),
+        0, Scope.WEAK);
+    ServiceManager.register(SoftService.class, new RecordingFactory<SoftService>("soft", created),
+        0, Scope.SOFT);
+    ServicePreloader preloader = new ServicePreloader();
+    preloader.add(WeakService.class, Preload.EAGER, 0);
+    preloader.add(SoftService.class, Preload.EAGER, 0);
+    preloader.start(DIRECT);
+    assertTrue(created.isEmpty());
+  }
+}
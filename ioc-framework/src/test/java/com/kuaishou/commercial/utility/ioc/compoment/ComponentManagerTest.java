@@ -0,0 +1,288 @@
+package com.kuaishou.commercial.utility.ioc.compoment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 按依赖关系调度组件初始化
+ */
+public class ComponentManagerTest {
+  private final List<String> mOrder = Collections.synchronizedList(new ArrayList<String>());
+  private ComponentManager mManager;
+  private ExecutorService mExecutor;
+
+  @Before
+  public void setUp() {
+    mManager = new ComponentManager();
+    mExecutor = Executors.newFixedThreadPool(4);
+    mManager.setExecutor(mExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  private class Component implements ComponentLifecycle {
+    private final String mName;
+    private final boolean mMainThread;
+    private String[] mDependencies = NONE;
+    private String[] mProduces = NONE;
+    private Runnable mAction;
+    volatile Thread mThread;
+
+    Component(String name, boolean mainThread) {
+      mName = name;
+      mMainThread = mainThread;
+    }
+
+    Component dependsOn(String... dependencies) {
+      mDependencies = dependencies;
+      return this;
+    }
+
+    Component produces(String... produces) {
+      mProduces = produces;
+      return this;
+    }
+
+    Component then(Runnable action) {
+      mAction = action;
+      return this;
+    }
+
+    @Override
+    public void onInit() {
+      mThread = Thread.currentThread();
+      if (mAction != null) {
+        mAction.run();
+      }
+      mOrder.add(mName);
+    }
+
+    @Override
+    public String name() {
+      return mName;
+    }
+
+    @Override
+    public String[] dependencies() {
+      return mDependencies;
+    }
+
+    @Override
+    public String[] produces() {
+      return mProduces;
+    }
+
+    @Override
+    public boolean runOnMainThread() {
+      return mMainThread;
+    }
+  }
+
+  private Component add(String name, boolean mainThread) {
+    Component component = new Component(name, mainThread);
+    mManager.addComponentLifecycle(component);
+    return component;
+  }
+
+  private static Runnable await(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+  }
+
+  private void assertBefore(String first, String second) {
+    assertTrue(mOrder.toString(), mOrder.indexOf(first) >= 0);
+    assertTrue(mOrder.toString(), mOrder.indexOf(first) < mOrder.indexOf(second));
+  }
+
+  @Test(timeout = 10000)
+  public void initAfterDependencies() {
+    add("feed", true).dependsOn("account");
+    add("account", false).dependsOn("network", "config");
+    add("network", true).dependsOn("config");
+    add("config", false);
+    add("ui", true).dependsOn("session", "missing");
+    add("login", false).produces("session");
+
+    mManager.init();
+
+    assertEquals(mOrder.toString(), 6, mOrder.size());
+    assertBefore("config", "network");
+    assertBefore("network", "account");
+    assertBefore("config", "account");
+    assertBefore("account", "feed");
+    assertBefore("login", "ui");
+  }
+
+  @Test(timeout = 10000)
+  public void independentComponentsRunInParallel() {
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    Runnable meet = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // 串行执行时第一个组件会等到超时
+          barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    Component first = add("first", false).then(meet);
+    Component second = add("second", false).then(meet);
+
+    assertTrue(mManager.init(10, TimeUnit.SECONDS));
+    assertNotSame(first.mThread, second.mThread);
+  }
+
+  @Test(timeout = 10000)
+  public void mainThreadComponentsRunOnCaller() {
+    Component background = add("background", false);
+    Component main = add("main", true).dependsOn("background");
+    Component last = add("last", false).dependsOn("main");
+
+    mManager.init();
+
+    assertSame(Thread.currentThread(), main.mThread);
+    assertNotSame(Thread.currentThread(), background.mThread);
+    assertNotSame(Thread.currentThread(), last.mThread);
+  }
+
+  @Test(timeout = 10000)
+  public void cycleFailsBeforeAnyInit() {
+    add("a", false).dependsOn("b");
+    add("b", true).dependsOn("a");
+    add("c", true);
+    try {
+      mManager.init();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("component dependency cycle: a b", e.getMessage());
+    }
+    assertTrue(mOrder.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void cycleMessageExcludesDownstream() {
+    //c和d只是依赖环上的节点，先注册也不计入环
+    add("d", false).dependsOn("c");
+    add("c", false).dependsOn("a");
+    add("a", false).dependsOn("b");
+    add("b", false).dependsOn("e");
+    add("e", false).dependsOn("a");
+    try {
+      mManager.init();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("component dependency cycle: a b e", e.getMessage());
+    }
+    assertTrue(mOrder.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void timeoutThenAwait() {
+    CountDownLatch release = new CountDownLatch(1);
+    add("slow", false).then(await(release));
+    Component main = add("main", true).dependsOn("slow");
+
+    assertFalse(mManager.init(50, TimeUnit.MILLISECONDS));
+    assertTrue(mOrder.isEmpty());
+
+    release.countDown();
+    // 超时后就绪的主线程组件在调用线程await时执行
+    assertTrue(mManager.await(10, TimeUnit.SECONDS));
+    assertSame(Thread.currentThread(), main.mThread);
+    assertEquals(2, mOrder.size());
+  }
+
+  @Test(timeout = 10000)
+  public void failureRethrownFromAwait() {
+    final IllegalArgumentException failure = new IllegalArgumentException("boom");
+    final CountDownLatch release = new CountDownLatch(1);
+    add("failing", false).then(new Runnable() {
+      @Override
+      public void run() {
+        await(release).run();
+        throw failure;
+      }
+    });
+    add("dependent", true).dependsOn("failing");
+
+    assertFalse(mManager.init(50, TimeUnit.MILLISECONDS));
+    release.countDown();
+    try {
+      mManager.await(10, TimeUnit.SECONDS);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertSame(failure, e);
+    }
+    assertFalse(mOrder.contains("dependent"));
+  }
+
+  @Test(timeout = 10000)
+  public void failureRethrownFromInit() {
+    final IllegalArgumentException failure = new IllegalArgumentException("boom");
+    add("failing", true).then(new Runnable() {
+      @Override
+      public void run() {
+        throw failure;
+      }
+    });
+    try {
+      mManager.init();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void rejectedDispatchFailsInit() {
+    // 第一个组件正常执行，其完成后在工作线程中调度的依赖组件被拒绝
+    final AtomicInteger accepted = new AtomicInteger();
+    mManager.setExecutor(command -> {
+      if (accepted.getAndIncrement() > 0) {
+        throw new RejectedExecutionException("full");
+      }
+      mExecutor.execute(command);
+    });
+    add("first", false);
+    add("second", false).dependsOn("first");
+    try {
+      mManager.init();
+      fail();
+    } catch (RejectedExecutionException e) {
+      assertEquals("full", e.getMessage());
+    }
+    assertEquals(Collections.singletonList("first"), mOrder);
+  }
+}
@@ -0,0 +1,112 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 延迟注册时factory在首次get才通过provider按下标创建
+ */
+public class LazyRegistrationTest {
+
+  interface ServiceA {
+  }
+
+  interface ServiceB {
+  }
+
+  private static class Impl implements ServiceA, ServiceB {
+    final int mIndex;
+
+    Impl(int index) {
+      mIndex = index;
+    }
+  }
+
+  /**
+   * 模拟编译期生成的register，记录被加载的下标
+   */
+  private static class RecordingProvider implements FactoryProvider {
+    final List<Integer> mLoaded = new ArrayList<>();
+    // 为true时factory返回null
+    boolean mFail;
+
+    @Override
+    public Factory<?> getFactory(final int index) {
+      mLoaded.add(index);
+      return new Factory<Impl>() {
+        @Override
+        protected Impl newInstance() {
+          return mFail ? null : new Impl(index);
+        }
+      };
+    }
+  }
+
+  private static int indexOf(Object instance) {
+    return ((Impl) instance).mIndex;
+  }
+
+  @Test
+  public void factoryLoadedOnFirstGet() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    RecordingProvider provider = new RecordingProvider();
+    manager.registerLazyFactory(ServiceA.class, provider, 0, Constants.MIN_PRIORITY);
+    manager.registerLazyFactory(ServiceB.class, provider, 1, Constants.MIN_PRIORITY);
+    assertEquals(0, provider.mLoaded.size());
+
+    Object b = manager.get(ServiceB.class);
+    assertEquals(1, indexOf(b));
+    assertEquals(1, provider.mLoaded.size());
+    assertSame(b, manager.get(ServiceB.class));
+    assertEquals(0, indexOf(manager.get(ServiceA.class)));
+    assertEquals(2, provider.mLoaded.size());
+  }
+
+  @Test
+  public void priorityOverrideWhileUnloaded() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    RecordingProvider provider = new RecordingProvider();
+    manager.registerLazyFactory(ServiceA.class, provider, 0, 0);
+    manager.registerLazyFactory(ServiceA.class, provider, 1, 10);
+    manager.registerLazyFactory(ServiceA.class, provider, 2, 5);
+
+    assertEquals(1, indexOf(manager.get(ServiceA.class)));
+    // 被覆盖的绑定从未加载
+    assertEquals(1, provider.mLoaded.size());
+    assertEquals(1, (int) provider.mLoaded.get(0));
+  }
+
+  @Test
+  public void scopePassedThrough() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    RecordingProvider provider = new RecordingProvider();
+    manager.registerLazyFactory(ServiceA.class, provider, 0, Constants.MIN_PRIORITY,
+        RetryPolicy.ALWAYS, Scope.PROTOTYPE);
+    assertEquals(Scope.PROTOTYPE, manager.getScope(ServiceA.class));
+    assertNotSame(manager.get(ServiceA.class), manager.get(ServiceA.class));
+    assertEquals(1, provider.mLoaded.size());
+  }
+
+  @Test
+  public void retryPolicyPassedThrough() {
+    RecordingProvider provider = new RecordingProvider();
+    provider.mFail = true;
+    ServiceProperty<ServiceA> property = new ServiceProperty<>(ServiceA.class, provider, 0,
+        Constants.MIN_PRIORITY, RetryPolicy.ON_INVALIDATE, Scope.DEFAULT);
+    property.getInstance();
+    property.getInstance();
+    assertEquals(1, property.getFailureCount());
+    assertEquals(1, property.getSkipCount());
+
+    provider.mFail = false;
+    property.invalidate();
+    assertEquals(0, indexOf(property.getInstance()));
+  }
+}
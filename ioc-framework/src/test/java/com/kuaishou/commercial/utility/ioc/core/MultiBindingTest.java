@@ -0,0 +1,88 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 多绑定
+ */
+public class MultiBindingTest {
+
+  interface Listener {
+    int id();
+  }
+
+  private static class ListenerFactory extends Factory<Listener> {
+    private final int mId;
+
+    ListenerFactory(int id) {
+      mId = id;
+    }
+
+    @Override
+    protected Listener newInstance() {
+      return new Listener() {
+        @Override
+        public int id() {
+          return mId;
+        }
+      };
+    }
+  }
+
+  private static class ListenerFactory2 extends ListenerFactory {
+    ListenerFactory2(int id) {
+      super(id);
+    }
+  }
+
+  private static class ListenerFactory3 extends ListenerFactory {
+    ListenerFactory3(int id) {
+      super(id);
+    }
+  }
+
+  @Test
+  public void sortedByPriorityAndCached() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactoryIntoSet(Listener.class, new ListenerFactory(1), 1);
+    manager.registerFactoryIntoSet(Listener.class, new ListenerFactory2(2), 5);
+    manager.registerFactoryIntoSet(Listener.class, new ListenerFactory3(3), 1);
+
+    List<Listener> all = manager.getAll(Listener.class);
+    assertEquals(3, all.size());
+    assertEquals(2, all.get(0).id());
+    assertEquals(1, all.get(1).id());
+    assertEquals(3, all.get(2).id());
+    assertSame(all, manager.getAll(Listener.class));
+    assertNull(manager.get(Listener.class));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void sharedResultIsUnmodifiable() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactoryIntoSet(Listener.class, new ListenerFactory(1), 1);
+    manager.getAll(Listener.class).set(0, null);
+  }
+
+  @Test
+  public void sameFactoryReplacesAndInvalidatesCache() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactoryIntoSet(Listener.class, new ListenerFactory(1), 1);
+    List<Listener> first = manager.getAll(Listener.class);
+    manager.registerFactoryIntoSet(Listener.class, new ListenerFactory(4), 1);
+
+    List<Listener> all = manager.getAll(Listener.class);
+    assertEquals(1, all.size());
+    assertEquals(4, all.get(0).id());
+    assertEquals(1, first.get(0).id());
+    assertTrue(manager.getAll(Runnable.class).isEmpty());
+  }
+}
@@ -0,0 +1,109 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.kuaishou.commercial.utility.ioc.metrics.LatencyHistogram;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetrics;
+import com.kuaishou.commercial.utility.ioc.metrics.ServiceMetricsAggregator;
+
+/**
+ * 监控埋点
+ */
+public class ServiceMetricsTest {
+
+  interface DemoService {
+    boolean isAvailable();
+  }
+
+  private static class DemoFactory extends Factory<DemoService> {
+    final DemoService mResult;
+
+    DemoFactory(DemoService result) {
+      mResult = result;
+    }
+
+    @Override
+    protected DemoService newInstance() {
+      return mResult;
+    }
+  }
+
+  @After
+  public void tearDown() {
+    ServiceMetrics.setListener(null);
+  }
+
+  @Test
+  public void aggregatesGetCreateFallbackAndOverride() {
+    ServiceMetricsAggregator aggregator = new ServiceMetricsAggregator();
+    ServiceMetrics.setListener(aggregator);
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(DemoService.class, new DemoFactory(null), Constants.MIN_PRIORITY);
+    manager.get(DemoService.class);
+    manager.registerFactory(DemoService.class, new DemoFactory(null), Constants.MIN_PRIORITY - 1);
+    manager.registerFactory(DemoService.class, new DemoFactory(new DemoService() {
+      @Override
+      public boolean isAvailable() {
+        return true;
+      }
+    }), Constants.MIN_PRIORITY + 1);
+    manager.get(DemoService.class);
+    manager.get(DemoService.class);
+
+    ServiceMetricsAggregator.ServiceStats stats = aggregator.statsOf(DemoService.class);
+    assertEquals(3, stats.getCount.get());
+    assertEquals(2, stats.createNanos.getCount());
+    assertEquals(1, stats.createFailureCount.get());
+    assertEquals(1, stats.proxyFallbackCount.get());
+    assertEquals(1, stats.overrideCount.get());
+    assertEquals(1, stats.rejectCount.get());
+    assertTrue(aggregator.dump().contains(DemoService.class.getName()));
+  }
+
+  @Test
+  public void noEventsWithoutListener() {
+    ServiceMetricsAggregator aggregator = new ServiceMetricsAggregator();
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(DemoService.class, new DemoFactory(null), Constants.MIN_PRIORITY);
+    manager.get(DemoService.class);
+    assertTrue(aggregator.getStats().isEmpty());
+  }
+
+  @Test
+  public void histogramPercentileWithinBucketError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000000, histogram.getMax());
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+    assertEquals(1000000, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void histogramClampsValuesBeyondRange() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record((1L << 40) - 1);
+    histogram.record(1L << 40);
+    assertEquals(2, histogram.getCount());
+    assertEquals(1L << 40, histogram.getMax());
+    assertEquals(1L << 40, histogram.getPercentile(100));
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= (1L << 40) - 1 - (1L << 37) && p50 <= (1L << 40) - 1);
+
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.getMax());
+    assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    // 溢出桶只能取最大值，范围内的桶不受影响
+    assertEquals(Long.MAX_VALUE, histogram.getPercentile(60));
+    assertEquals(p50, histogram.getPercentile(30));
+  }
+}
@@ -0,0 +1,83 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * factory返回null时的失败缓存
+ */
+public class ServicePropertyRetryTest {
+
+  interface DemoService {
+    boolean isAvailable();
+  }
+
+  private static class FlakyFactory extends Factory<DemoService> {
+    int mCalls;
+    DemoService mResult;
+
+    @Override
+    protected DemoService newInstance() {
+      mCalls++;
+      return mResult;
+    }
+  }
+
+  @Test
+  public void alwaysRetriesOnEveryGet() {
+    FlakyFactory factory = new FlakyFactory();
+    ServiceProperty<DemoService> property =
+        new ServiceProperty<>(DemoService.class, factory, Constants.MIN_PRIORITY);
+    property.getInstance();
+    property.getInstance();
+    assertEquals(2, factory.mCalls);
+    assertEquals(2, property.getFailureCount());
+  }
+
+  @Test
+  public void onInvalidateSkipsUntilInvalidated() {
+    FlakyFactory factory = new FlakyFactory();
+    ServiceProperty<DemoService> property = new ServiceProperty<>(DemoService.class, factory,
+        Constants.MIN_PRIORITY, RetryPolicy.ON_INVALIDATE);
+    DemoService fallback = property.getInstance();
+    assertFalse(fallback.isAvailable());
+    assertSame(fallback, property.getInstance());
+    assertEquals(1, factory.mCalls);
+    assertEquals(1, property.getSkipCount());
+
+    factory.mResult = () -> true;
+    property.invalidate();
+    assertSame(factory.mResult, property.getInstance());
+    assertEquals(2, factory.mCalls);
+  }
+
+  @Test
+  public void neverIgnoresInvalidate() {
+    FlakyFactory factory = new FlakyFactory();
+    ServiceProperty<DemoService> property = new ServiceProperty<>(DemoService.class, factory,
+        Constants.MIN_PRIORITY, RetryPolicy.NEVER);
+    property.getInstance();
+    factory.mResult = () -> true;
+    property.invalidate();
+    assertFalse(property.getInstance().isAvailable());
+    assertEquals(1, factory.mCalls);
+  }
+
+  @Test
+  public void backoffRetriesAfterDelay() throws InterruptedException {
+    FlakyFactory factory = new FlakyFactory();
+    ServiceProperty<DemoService> property = new ServiceProperty<>(DemoService.class, factory,
+        Constants.MIN_PRIORITY, RetryPolicy.backoff(20, 1000));
+    property.getInstance();
+    property.getInstance();
+    assertEquals(1, factory.mCalls);
+    Thread.sleep(40);
+    property.getInstance();
+    assertEquals(2, factory.mCalls);
+    assertEquals(40, RetryPolicy.backoff(20, 1000).retryDelayMs(2));
+    assertEquals(1000, RetryPolicy.backoff(20, 1000).retryDelayMs(40));
+  }
+}
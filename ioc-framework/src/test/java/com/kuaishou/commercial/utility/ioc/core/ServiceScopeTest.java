@@ -0,0 +1,90 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+/**
+ * 实例的缓存范围
+ */
+public class ServiceScopeTest {
+
+  interface DemoService {
+    boolean isAvailable();
+  }
+
+  private static class DemoFactory extends Factory<DemoService> {
+    private final int mScope;
+    int mCalls;
+
+    DemoFactory(int scope) {
+      mScope = scope;
+    }
+
+    @Override
+    protected DemoService newInstance() {
+      mCalls++;
+      return new DemoService() {
+        @Override
+        public boolean isAvailable() {
+          return true;
+        }
+      };
+    }
+
+    @Override
+    protected int scope() {
+      return mScope;
+    }
+  }
+
+  @Test
+  public void prototypeCreatesPerGet() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(DemoService.class, new DemoFactory(Scope.PROTOTYPE));
+    assertNotSame(manager.get(DemoService.class), manager.get(DemoService.class));
+  }
+
+  @Test
+  public void threadLocalCreatesPerThread() throws InterruptedException {
+    final InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(DemoService.class, new DemoFactory(Scope.THREAD_LOCAL));
+    DemoService main = manager.get(DemoService.class);
+    assertSame(main, manager.get(DemoService.class));
+    final DemoService[] other = new DemoService[1];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        other[0] = manager.get(DemoService.class);
+      }
+    });
+    thread.start();
+    thread.join();
+    assertNotSame(main, other[0]);
+  }
+
+  @Test
+  public void weakCachesWhileReachable() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    DemoFactory factory = new DemoFactory(Scope.WEAK);
+    manager.registerFactory(DemoService.class, factory);
+    DemoService first = manager.get(DemoService.class);
+    assertSame(first, manager.get(DemoService.class));
+    assertEquals(1, factory.mCalls);
+  }
+
+  @Test
+  public void registerScopeOverridesFactoryScope() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    DemoFactory factory = new DemoFactory(Scope.SINGLETON);
+    manager.registerFactory(DemoService.class, factory, Constants.MIN_PRIORITY,
+        RetryPolicy.ALWAYS, Scope.PROTOTYPE);
+    manager.get(DemoService.class);
+    manager.get(DemoService.class);
+    assertEquals(2, factory.mCalls);
+  }
+}
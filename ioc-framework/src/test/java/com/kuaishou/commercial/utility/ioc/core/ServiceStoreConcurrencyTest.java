@@ -0,0 +1,125 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * 并发模式下的ServiceStore压力测试
+ */
+public class ServiceStoreConcurrencyTest {
+  private static final int THREADS = 16;
+  private static final int ROUNDS = 200;
+
+  interface ServiceA {}
+
+  interface ServiceB {}
+
+  interface ServiceC {}
+
+  interface ServiceD {}
+
+  private static class CountingFactory<T> extends Factory<T> {
+    final AtomicInteger mCreated = new AtomicInteger();
+    private final T mValue;
+
+    CountingFactory(T value) {
+      mValue = value;
+    }
+
+    @Override
+    protected T newInstance() {
+      mCreated.incrementAndGet();
+      // 放大竞争窗口
+      Thread.yield();
+      return mValue;
+    }
+  }
+
+  private static InstanceManager<Object> newManager() {
+    return new InstanceManager<>(new ConcurrentHashMap<>(Constants.MAP_INIT_CAPACITY));
+  }
+
+  @Test
+  public void concurrentGetConstructsOnce() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        InstanceManager<Object> manager = newManager();
+        ServiceA value = new ServiceA() {};
+        CountingFactory<ServiceA> factory = new CountingFactory<>(value);
+        manager.registerFactory(ServiceA.class, factory);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ServiceA>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+          results.add(executor.submit(() -> {
+            start.await();
+            return manager.get(ServiceA.class);
+          }));
+        }
+        start.countDown();
+        for (Future<ServiceA> result : results) {
+          assertSame(value, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, factory.mCreated.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void concurrentRegisterKeepsHighestPriority() throws Exception {
+    Class<?>[] services = {ServiceA.class, ServiceB.class, ServiceC.class, ServiceD.class};
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        InstanceManager<Object> manager = newManager();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+          final int priority = i;
+          results.add(executor.submit(() -> {
+            start.await();
+            for (Class<?> service : services) {
+              registerWithPriority(manager, service, priority);
+            }
+            return null;
+          }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+          result.get(10, TimeUnit.SECONDS);
+        }
+        for (Class<?> service : services) {
+          assertEquals(service.getName(), THREADS - 1, manager.get(service));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static void registerWithPriority(InstanceManager<Object> manager, Class service,
+      int priority) {
+    manager.registerFactory(service, new Factory<Object>() {
+      @Override
+      protected Object newInstance() {
+        return priority;
+      }
+    }, priority);
+  }
+}
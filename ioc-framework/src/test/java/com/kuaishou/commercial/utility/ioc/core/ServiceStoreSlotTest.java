@@ -0,0 +1,132 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * slot的分配与按slot查找
+ */
+public class ServiceStoreSlotTest {
+  private static final int THREADS = 8;
+  private static final int ROUNDS = 200;
+  // 足够多的接口，保证并发期间多次扩容
+  private static final Class<?>[] SERVICES = {Runnable.class, Comparable.class, Iterable.class,
+      Collection.class, List.class, Set.class, Map.class, Queue.class, Deque.class,
+      CharSequence.class, Appendable.class, AutoCloseable.class, Cloneable.class,
+      Serializable.class, Closeable.class, RandomAccess.class};
+
+  interface ServiceA {
+  }
+
+  interface ServiceB {
+  }
+
+  private static Factory<Object> valueFactory(final Object value) {
+    return new Factory<Object>() {
+      @Override
+      protected Object newInstance() {
+        return value;
+      }
+    };
+  }
+
+  @Test
+  public void slotStableAcrossReregistration() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(ServiceA.class, valueFactory("first"), 0);
+    int slot = manager.slotOf(ServiceA.class);
+    assertEquals("first", manager.get(slot));
+
+    manager.registerFactory(ServiceA.class, valueFactory("second"), 10);
+    assertEquals(slot, manager.slotOf(ServiceA.class));
+    assertEquals("second", manager.get(slot));
+
+    // 低优先级注册失败，slot中仍是原来的绑定
+    manager.registerFactory(ServiceA.class, valueFactory("third"), 5);
+    assertEquals(slot, manager.slotOf(ServiceA.class));
+    assertEquals("second", manager.get(slot));
+  }
+
+  @Test
+  public void slotAllocatedBeforeRegistration() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    int slotB = manager.slotOf(ServiceB.class);
+    assertNull(manager.get(slotB));
+    assertNull(manager.get(slotB + 1));
+    assertNull(manager.get(-1));
+
+    manager.registerFactory(ServiceA.class, valueFactory("a"));
+    manager.registerFactory(ServiceB.class, valueFactory("b"));
+    assertEquals(slotB, manager.slotOf(ServiceB.class));
+    assertEquals("b", manager.get(slotB));
+    assertEquals("a", manager.get(manager.slotOf(ServiceA.class)));
+  }
+
+  @Test
+  public void concurrentSlotOfAndRegister() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        final InstanceManager<Object> manager =
+            new InstanceManager<>(new ConcurrentHashMap<>(Constants.MAP_INIT_CAPACITY));
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<Class<?>, Integer>>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+          final boolean register = i % 2 == 0;
+          final List<Class<?>> order = new ArrayList<>();
+          Collections.addAll(order, SERVICES);
+          Collections.shuffle(order);
+          results.add(executor.submit(() -> {
+            start.await();
+            Map<Class<?>, Integer> slots = new HashMap<>();
+            for (Class<?> service : order) {
+              if (register) {
+                manager.registerFactory(service, valueFactory(service));
+              }
+              slots.put(service, manager.slotOf(service));
+            }
+            return slots;
+          }));
+        }
+        start.countDown();
+        for (Future<Map<Class<?>, Integer>> result : results) {
+          Map<Class<?>, Integer> slots = result.get(10, TimeUnit.SECONDS);
+          for (Class<?> service : SERVICES) {
+            assertEquals(service.getName(), manager.slotOf(service), (int) slots.get(service));
+          }
+        }
+        Set<Integer> distinct = new HashSet<>();
+        for (Class<?> service : SERVICES) {
+          distinct.add(manager.slotOf(service));
+          assertSame(service, manager.get(manager.slotOf(service)));
+        }
+        assertEquals(SERVICES.length, distinct.size());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
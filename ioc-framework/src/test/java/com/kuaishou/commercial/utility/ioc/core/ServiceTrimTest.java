@@ -0,0 +1,164 @@
+package com.kuaishou.commercial.utility.ioc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import com.kuaishou.commercial.utility.ioc.ServiceManager;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 按sizeHint和LRU回收空闲的service
+ */
+public class ServiceTrimTest {
+
+  interface ServiceA {
+  }
+
+  interface ServiceB {
+  }
+
+  interface StatefulService extends Service {
+  }
+
+  interface RecentService extends Service {
+  }
+
+  private static class StatefulImpl implements ServiceA, StatefulService {
+  }
+
+  private static class EvictableImpl implements ServiceA, ServiceB, RecentService, Evictable {
+    final long mSize;
+    int mEvictCount;
+
+    EvictableImpl(long size) {
+      mSize = size;
+    }
+
+    @Override
+    public void onEvict() {
+      mEvictCount++;
+    }
+
+    @Override
+    public long sizeHint() {
+      return mSize;
+    }
+  }
+
+  private static class ImplFactory<T> extends Factory<T> {
+    private final long mSize;
+
+    ImplFactory() {
+      this(0);
+    }
+
+    ImplFactory(long size) {
+      mSize = size;
+    }
+
+    @Override
+    protected T newInstance() {
+      return (T) new EvictableImpl(mSize);
+    }
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedFirst() throws InterruptedException {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.enableTrim();
+    manager.registerFactory(ServiceA.class, new ImplFactory<ServiceA>());
+    manager.registerFactory(ServiceB.class, new ImplFactory<ServiceB>());
+    EvictableImpl a = (EvictableImpl) manager.get(ServiceA.class);
+    // 超过使用时间的精度
+    Thread.sleep(30);
+    EvictableImpl b = (EvictableImpl) manager.get(ServiceB.class);
+
+    assertEquals(1, manager.trim(0, 1));
+    assertEquals(1, a.mEvictCount);
+    assertEquals(0, b.mEvictCount);
+    assertNotSame(a, manager.get(ServiceA.class));
+    assertSame(b, manager.get(ServiceB.class));
+  }
+
+  @Test
+  public void evictsLargestFirst() throws InterruptedException {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.enableTrim();
+    manager.registerFactory(ServiceA.class, new ImplFactory<ServiceA>(1024));
+    manager.registerFactory(ServiceB.class, new ImplFactory<ServiceB>(1024 * 1024));
+    EvictableImpl a = (EvictableImpl) manager.get(ServiceA.class);
+    Thread.sleep(30);
+    EvictableImpl b = (EvictableImpl) manager.get(ServiceB.class);
+
+    // b更近使用过，但占用更大
+    assertEquals(1, manager.trim(0, 1));
+    assertEquals(0, a.mEvictCount);
+    assertEquals(1, b.mEvictCount);
+  }
+
+  @Test
+  public void enableTrimTreatsExistingAsJustUsed() throws InterruptedException {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(ServiceA.class, new ImplFactory<ServiceA>());
+    manager.get(ServiceA.class);
+    Thread.sleep(30);
+    manager.enableTrim();
+
+    assertEquals(0, manager.trim(TimeUnit.MILLISECONDS.toNanos(20), Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void skipsPinnedAndRecentlyUsed() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.setPinned(ServiceA.class, true);
+    manager.registerFactory(ServiceA.class, new ImplFactory<ServiceA>());
+    manager.registerFactory(ServiceB.class, new ImplFactory<ServiceB>());
+    manager.get(ServiceA.class);
+    manager.get(ServiceB.class);
+
+    assertEquals(0, manager.trim(Long.MAX_VALUE, Integer.MAX_VALUE));
+    assertEquals(1, manager.trim(0, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void skipsNonEvictable() {
+    InstanceManager<Object> manager = new InstanceManager<>(new HashMap<>());
+    manager.registerFactory(ServiceA.class, new Factory<ServiceA>() {
+      @Override
+      protected ServiceA newInstance() {
+        return new StatefulImpl();
+      }
+    });
+    Object stateful = manager.get(ServiceA.class);
+
+    assertEquals(0, manager.trim(0, Integer.MAX_VALUE));
+    assertSame(stateful, manager.get(ServiceA.class));
+  }
+
+  @Test
+  public void trimMemoryCompleteKeepsNonEvictableAndRecent() {
+    ServiceManager.register(StatefulService.class, new Factory<StatefulService>() {
+      @Override
+      protected StatefulService newInstance() {
+        return new StatefulImpl();
+      }
+    });
+    ServiceManager.register(RecentService.class, new ImplFactory<RecentService>());
+    StatefulService stateful = ServiceManager.get(StatefulService.class);
+    RecentService recent = ServiceManager.get(RecentService.class);
+
+    ServiceManager.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    assertSame(stateful, ServiceManager.get(StatefulService.class));
+    // 刚使用过的可回收service同样保留
+    assertSame(recent, ServiceManager.get(RecentService.class));
+    assertEquals(0, ((EvictableImpl) recent).mEvictCount);
+  }
+}
@@ -4,17 +4,21 @@ import com.android.build.api.transform.*
 import com.android.build.gradle.internal.pipeline.TransformManager
 import kotlinx.coroutines.*
 import org.apache.commons.io.FileUtils
+import org.gradle.api.logging.Logging
 import org.objectweb.asm.ClassReader
 import org.objectweb.asm.ClassVisitor
 import org.objectweb.asm.ClassWriter
 import shadow.bundletool.com.android.SdkConstants
 import java.io.File
 import java.io.FileOutputStream
+import java.util.concurrent.ForkJoinPool
 import java.util.jar.JarEntry
 import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
 
 abstract class AbsInstrumentationTransform : Transform() {
-  private lateinit var outputProvider: TransformOutputProvider
+  protected lateinit var outputProvider: TransformOutputProvider
 
   // 设置我们自定义的Transform对应的Task名称
   // 编译的时候可以在控制台看到 比如：Task :app:transformClassesWithAsmTransformForDebug
@@ -26,7 +30,7 @@ abstract class AbsInstrumentationTransform : Transform() {
     return TransformManager.CONTENT_CLASS
   }
 
-  override fun isIncremental(): Boolean = false
+  override fun isIncremental(): Boolean = true
 
   // 指定Transform的作用范围
   override fun getScopes(): MutableSet<in QualifiedContent.Scope> {
@@ -40,42 +44,46 @@ abstract class AbsInstrumentationTransform : Transform() {
     //TransformOutputProvider管理输出路径,如果消费型输入为空,则outputProvider也为空
     outputProvider = transformInvocation?.outputProvider!!
 
-    if (!transformInvocation.isIncremental) {
+    //上次的扫描状态不可用时退化为全量构建
+    val incremental = transformInvocation.isIncremental && prepareIncremental(transformInvocation)
+    if (!incremental) {
       outputProvider.deleteAll()
     }
-    processTransform(transformInvocation)
+    processTransform(transformInvocation, incremental)
   }
 
-  private fun processTransform(transformInvocation: TransformInvocation) {
-    println(">>> processTransform runBlocking")
-    runBlocking {
-      val deferredList: ArrayList<Deferred<Unit>> = ArrayList()
-    // 拿到所有的class文件
-    transformInvocation.inputs.forEach { transformInput ->
-      // 遍历inputs Transform的inputs有两种类型，一种是目录，一种是jar包，要分开遍历
-      transformInput.directoryInputs.forEach { directoryInput ->
-        // 遍历directoryInputs(文件夹中的class文件) directoryInputs代表着以源码方式参与项目编译的所有目录结构及其目录下的源码文件
-        // 比如我们手写的类以及R.class、BuildConfig.class以及R$XXX.class等
-          val thread = async(Dispatchers.IO) {
-        processDirectoryInput(directoryInput, transformInvocation.isIncremental)
+  private fun processTransform(transformInvocation: TransformInvocation, incremental: Boolean) {
+    val parallelism = Math.max(1, parallelism())
+    logger.info("AbsInstrumentationTransform: processTransform parallelism: $parallelism")
+    //线程数固定为核数的work-stealing线程池，目录和jar内部再按class拆分任务，单个大jar也能用满所有核
+    val pool = ForkJoinPool(parallelism)
+    try {
+      runBlocking(pool.asCoroutineDispatcher()) {
+        // 拿到所有的class文件
+        transformInvocation.inputs.forEach { transformInput ->
+          // 遍历inputs Transform的inputs有两种类型，一种是目录，一种是jar包，要分开遍历
+          transformInput.directoryInputs.forEach { directoryInput ->
+            // 遍历directoryInputs(文件夹中的class文件) directoryInputs代表着以源码方式参与项目编译的所有目录结构及其目录下的源码文件
+            // 比如我们手写的类以及R.class、BuildConfig.class以及R$XXX.class等
+            launch { processDirectoryInput(directoryInput, incremental) }
           }
-          deferredList.add(thread)
-      }
 
-      // 遍历jar包中的class文件 jarInputs代表以jar包方式参与项目编译的所有本地jar包或远程jar包
-      transformInput.jarInputs.forEach { jarInput ->
-          val thread = async(Dispatchers.IO) {
-        // 处理jar包中的class文件
-        processJarInput(
-          jarInput,
-          transformInvocation.isIncremental
-        )
+          // 遍历jar包中的class文件 jarInputs代表以jar包方式参与项目编译的所有本地jar包或远程jar包
+          transformInput.jarInputs.forEach { jarInput ->
+            launch { processJarInput(jarInput, incremental) }
           }
-          deferredList.add(thread)
+        }
       }
+    } finally {
+      pool.shutdown()
     }
-      deferredList.awaitAll()
-    }
+  }
+
+  /**
+   * transform使用的线程数，默认为CPU核数
+   */
+  protected open fun parallelism(): Int {
+    return Runtime.getRuntime().availableProcessors()
   }
 
   /**
@@ -85,7 +93,7 @@ abstract class AbsInstrumentationTransform : Transform() {
    *
    * @param directoryInput 待处理的源码文件
    */
-  private fun processDirectoryInput(directoryInput: DirectoryInput, incremental: Boolean) {
+  private suspend fun processDirectoryInput(directoryInput: DirectoryInput, incremental: Boolean) {
 
     val dest: File = outputProvider.getContentLocation(
       directoryInput.name,
@@ -94,24 +102,28 @@ abstract class AbsInstrumentationTransform : Transform() {
     FileUtils.forceMkdir(dest)
 
     if (incremental) {
-      directoryInput.changedFiles.forEach { changedFile ->
-        val status: Status = changedFile.value
-        val inputFile: File = changedFile.key
-        val destFilePath: String = inputFile.absolutePath.replace(
-          directoryInput.file.absolutePath,
-          dest.absolutePath
-        )
-        val destFile = File(destFilePath)
-        when (status) {
-          Status.NOTCHANGED -> {
-          }
-          Status.ADDED, Status.CHANGED -> {
-            FileUtils.touch(destFile)
-            transformSingleFile(inputFile, destFile)
-          }
-          Status.REMOVED -> {
-            if (destFile.exists()) {
-              FileUtils.forceDelete(destFile)
+      coroutineScope {
+        directoryInput.changedFiles.forEach { changedFile ->
+          val status: Status = changedFile.value
+          val inputFile: File = changedFile.key
+          val destFilePath: String = inputFile.absolutePath.replace(
+            directoryInput.file.absolutePath,
+            dest.absolutePath
+          )
+          val destFile = File(destFilePath)
+          when (status) {
+            Status.NOTCHANGED -> {
+            }
+            Status.ADDED, Status.CHANGED -> launch {
+              forgetInput(inputFile)
+              FileUtils.forceMkdirParent(destFile)
+              transformSingleFile(inputFile, destFile)
+            }
+            Status.REMOVED -> {
+              forgetInput(inputFile)
+              if (destFile.exists()) {
+                FileUtils.forceDelete(destFile)
+              }
             }
           }
         }
@@ -121,18 +133,22 @@ abstract class AbsInstrumentationTransform : Transform() {
     }
   }
 
-  private fun transformDirectory(directoryInput: DirectoryInput, dest: File) {
+  private suspend fun transformDirectory(directoryInput: DirectoryInput, dest: File) {
     if (directoryInput.file.isDirectory) {
       val extensions: Array<String> = arrayOf("class")
-      // 列出目录所有文件（包含子文件夹，子文件夹内文件）
-      FileUtils.listFiles(directoryInput.file, extensions, true).forEach { inputFile ->
-        val destFilePath: String = inputFile.absolutePath.replace(
-          directoryInput.file
-            .absolutePath, dest.absolutePath
-        )
-        val destFile = File(destFilePath)
-        FileUtils.touch(destFile)
-        transformSingleFile(inputFile, destFile)
+      // 列出目录所有文件（包含子文件夹，子文件夹内文件），每个class一个任务
+      coroutineScope {
+        FileUtils.listFiles(directoryInput.file, extensions, true).forEach { inputFile ->
+          val destFilePath: String = inputFile.absolutePath.replace(
+            directoryInput.file
+              .absolutePath, dest.absolutePath
+          )
+          val destFile = File(destFilePath)
+          launch {
+            FileUtils.forceMkdirParent(destFile)
+            transformSingleFile(inputFile, destFile)
+          }
+        }
       }
     }
   }
@@ -145,7 +161,7 @@ abstract class AbsInstrumentationTransform : Transform() {
    *
    * @param jarInput 待处理的Jar文件
    */
-  private fun processJarInput(jarInput: JarInput, incremental: Boolean) {
+  private suspend fun processJarInput(jarInput: JarInput, incremental: Boolean) {
     val dest: File = outputProvider.getContentLocation(
       jarInput.name,
       jarInput.contentTypes,
@@ -158,9 +174,11 @@ abstract class AbsInstrumentationTransform : Transform() {
         Status.NOTCHANGED -> {
         }
         Status.ADDED, Status.CHANGED -> {
+          forgetInput(jarInput.file)
           transformJar(jarInput.file, dest)
         }
         Status.REMOVED -> {
+          forgetInput(jarInput.file)
           if (dest.exists()) {
             FileUtils.forceDelete(dest);
           }
@@ -172,62 +190,164 @@ abstract class AbsInstrumentationTransform : Transform() {
   }
 
   private fun transformSingleFile(inputFile: File, dest: File) {
+    if (justScan()) {
+      if (enableFileTrace(inputFile) && shouldScan(inputFile.invariantSeparatorsPath, false)) {
+        scanClass(inputFile.readBytes(), inputFile)
+        scanFile(inputFile)
+      }
+      Utils.copyUnchanged(inputFile, dest)
+      scanFileEnd(inputFile, dest)
+      return
+    }
     if (enableFileTrace(inputFile)) {
       val classReader = ClassReader(inputFile.readBytes())
       // 传入COMPUTE_MAXS，ASM会自动计算本地变量表和操作数栈
       val classWriter = ClassWriter(classReader, ClassWriter.COMPUTE_MAXS)
       // 创建类访问器，并交给它去处理
-      classReader.accept(getClassVisitor(classWriter), ClassReader.EXPAND_FRAMES)
+      classReader.accept(getClassVisitor(classWriter, inputFile), ClassReader.EXPAND_FRAMES)
       scanFile(inputFile)
-      if (justScan()) {
-        FileUtils.copyFile(inputFile, dest)
-      } else {
-        val code: ByteArray = classWriter.toByteArray()
-        val fos = FileOutputStream(dest)
-        fos.write(code)
-        fos.close()
-      }
+      Utils.writeBytes(dest, classWriter.toByteArray())
       scanFileEnd(inputFile, dest)
 
     } else {
-      FileUtils.copyFile(inputFile, dest)
+      Utils.copyUnchanged(inputFile, dest)
     }
   }
 
-  private fun transformJar(inputFile: File, dest: File) {
+  private suspend fun transformJar(inputFile: File, dest: File) {
     if (enableJarTrace(inputFile)) {
-      val jar = JarFile(inputFile)
-      //遍历jar文件内的.class文件
-      jar.entries().iterator().forEach {
-        if (it.name.endsWith(SdkConstants.DOT_CLASS)) {
-          //ClassReader只能处理.class文件
-          val classReader = ClassReader(jar.getInputStream(it))
-          // 传入COMPUTE_MAXS，ASM会自动计算本地变量表和操作数栈
-          val classWriter = ClassWriter(classReader, ClassWriter.COMPUTE_MAXS)
-          // 创建类访问器，并交给它去处理
-          classReader.accept(getClassVisitor(classWriter), ClassReader.EXPAND_FRAMES)
-          scanJar(jar, it)
+      if (!justScan()) {
+        transformJarEntries(inputFile, dest)
+        return
+      }
+      //遍历jar文件内的.class文件，按名称过滤后再并行解析，JarFile支持多线程读取
+      JarFile(inputFile).use { jar ->
+        val indexed = scanJarIndex(jar, inputFile)
+        coroutineScope {
+          jar.entries().iterator().forEach {
+            if (it.name.endsWith(SdkConstants.DOT_CLASS) && shouldScan(it.name, indexed)) {
+              launch {
+                val bytes = jar.getInputStream(it).use { input -> Utils.readAllBytes(input) }
+                scanClass(bytes, inputFile)
+                scanJar(jar, it)
+              }
+            }
+          }
         }
       }
       scanJarEnd(inputFile, dest)
-      if (justScan()) {
-        FileUtils.copyFile(inputFile, dest)
-      } else {
-        //暂不支持jar代码注入
-        FileUtils.copyFile(inputFile, dest)
-      }
+      Utils.copyUnchanged(inputFile, dest)
     } else {
-      FileUtils.copyFile(inputFile, dest)
+      Utils.copyUnchanged(inputFile, dest)
+    }
+  }
+
+  /**
+   * 插桩模式下按批并行插桩，再按原顺序写出，保留entry的时间和extra，保证输出的jar是确定的
+   */
+  private suspend fun transformJarEntries(inputFile: File, dest: File) {
+    FileUtils.forceMkdirParent(dest)
+    if (dest.exists()) {
+      FileUtils.forceDelete(dest)
+    }
+    try {
+      JarFile(inputFile).use { jar ->
+        JarOutputStream(FileOutputStream(dest)).use { jos ->
+          //每批的数量限制同时驻留在内存中的字节码
+          val batchSize = Math.max(1, parallelism()) * JAR_BATCH_PER_THREAD
+          jar.entries().toList().chunked(batchSize).forEach { batch ->
+            val results = coroutineScope {
+              batch.map { entry ->
+                async {
+                  val bytes = jar.getInputStream(entry).use { Utils.readAllBytes(it) }
+                  if (entry.name.endsWith(SdkConstants.DOT_CLASS)) {
+                    val classReader = ClassReader(bytes)
+                    val classWriter = ClassWriter(classReader, ClassWriter.COMPUTE_MAXS)
+                    classReader.accept(getClassVisitor(classWriter, inputFile), ClassReader.EXPAND_FRAMES)
+                    scanJar(jar, entry)
+                    classWriter.toByteArray()
+                  } else {
+                    bytes
+                  }
+                }
+              }.awaitAll()
+            }
+            batch.forEachIndexed { i, entry ->
+              //不保留时间时ZipOutputStream会写入当前时间，每次构建的输出都不同
+              val newEntry = ZipEntry(entry.name)
+              newEntry.time = entry.time
+              newEntry.extra = entry.extra
+              jos.putNextEntry(newEntry)
+              jos.write(results[i])
+              jos.closeEntry()
+            }
+          }
+        }
+      }
+    } catch (e: Throwable) {
+      //插桩失败时不留下截断的jar
+      FileUtils.deleteQuietly(dest)
+      throw e
     }
+    scanJarEnd(inputFile, dest)
   }
 
 
   /**
    * 获取插桩的ClassVisitor
    * @param classVisitor
+   * @param inputFile 当前处理的输入，目录中的class文件或jar文件
    * @return {@see ClassVisitor}
    */
-  protected abstract fun getClassVisitor(classVisitor: ClassVisitor): ClassVisitor
+  protected abstract fun getClassVisitor(classVisitor: ClassVisitor, inputFile: File): ClassVisitor
+
+  /**
+   * 扫描模式的ClassVisitor，不需要写出字节码，只解析类头、注解和字段方法声明
+   * @param inputFile 当前处理的输入，目录中的class文件或jar文件
+   */
+  protected open fun getScanVisitor(inputFile: File): ClassVisitor? {
+    return null
+  }
+
+  /**
+   * 扫描模式下按类路径预过滤，返回false的class不会被解析
+   * @param path jar entry名称或class文件路径，使用/分隔
+   * @param indexed jar中的索引已被[scanJarIndex]读取
+   */
+  protected open fun shouldScan(path: String, indexed: Boolean): Boolean {
+    return true
+  }
+
+  /**
+   * 扫描模式下先读取jar中的索引文件，索引只需通过jar的中央目录定位，不需要解析class
+   * @return true表示已从索引得到扫描结果
+   */
+  protected open fun scanJarIndex(jar: JarFile, inputFile: File): Boolean {
+    return false
+  }
+
+  //扫描模式：跳过方法体、调试信息和栈帧，不创建ClassWriter
+  private fun scanClass(bytes: ByteArray, inputFile: File) {
+    val visitor = getScanVisitor(inputFile) ?: return
+    ClassReader(bytes).accept(
+      visitor,
+      ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES
+    )
+  }
+
+  /**
+   * 增量构建前调用，用于恢复上次构建的扫描状态
+   * @return false表示状态不可用，退化为全量构建
+   */
+  protected open fun prepareIncremental(transformInvocation: TransformInvocation): Boolean {
+    return true
+  }
+
+  /**
+   * 增量构建中输入被删除或即将重新处理，清除该输入上次的扫描结果
+   * @param inputFile 目录中的class文件或jar文件
+   */
+  protected open fun forgetInput(inputFile: File) {}
 
   /**
    * 判断该文件（包括jar文件）是否需要插桩
@@ -260,9 +380,14 @@ abstract class AbsInstrumentationTransform : Transform() {
     return false
   }
 
+  //以下回调会在transform的线程池中并发调用，实现需要线程安全
   protected fun scanFile(inputFile: File) {}
   protected open fun scanFileEnd(inputFile: File, destFile: File) {}
   protected open fun scanJar(jarFile: JarFile, jarEntry: JarEntry) {}
   protected open fun scanJarEnd(inputFile: File, destFile: File) {}
 
-}
\ No newline at end of file
+  companion object {
+    private const val JAR_BATCH_PER_THREAD = 64
+    private val logger = Logging.getLogger(AbsInstrumentationTransform::class.java)
+  }
+}
@@ -0,0 +1,21 @@
+package com.kuaishou.commercial.utility.plugin
+
+/**
+ * 插件配置，在build.gradle中通过iocRegister { } 配置
+ */
+open class IOCRegisterExtension {
+  /**
+   * 是否将ServiceManager.get(X.class)的调用改写为直接访问编译期生成的accessor，仅对application生效
+   */
+  var rewriteServiceGet: Boolean = false
+
+  /**
+   * 是否在构建期合并各模块的注册，同一接口只注册优先级最高的factory，关闭后调用各模块的register在运行期比较
+   */
+  var resolvePriorityAtBuildTime: Boolean = true
+
+  /**
+   * 插入的register中每个方法最多的注册语句数，超过后拆分到多个方法，避免方法过大无法JIT或超过64KB
+   */
+  var registerChunkSize: Int = 200
+}
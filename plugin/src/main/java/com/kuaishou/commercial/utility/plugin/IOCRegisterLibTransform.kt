@@ -5,4 +5,6 @@ import com.android.build.gradle.internal.pipeline.TransformManager
 
 class IOCRegisterLibTransform: IOCRegisterTransform() {
   override fun getScopes(): MutableSet<in QualifiedContent.Scope> = TransformManager.PROJECT_ONLY
+
+  override fun rewriteServiceGet(): Boolean = false
 }
\ No newline at end of file
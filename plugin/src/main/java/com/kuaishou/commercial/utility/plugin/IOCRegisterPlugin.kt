@@ -8,10 +8,11 @@ import com.android.build.gradle.LibraryExtension
 class IOCRegisterPlugin : Plugin<Project> {
   override fun apply(target: Project) {
     println("IOCRegisterPlugin apply")
+    val extension = target.extensions.create("iocRegister", IOCRegisterExtension::class.java)
     when {
       target.plugins.hasPlugin("com.android.application") ->
         target.extensions.getByType(AppExtension::class.java)
-          .registerTransform(IOCRegisterTransform())
+          .registerTransform(IOCRegisterTransform(extension))
       target.plugins.hasPlugin("com.android.library") ->
         target.extensions.getByType(LibraryExtension::class.java)
           .registerTransform(IOCRegisterLibTransform())
@@ -1,97 +1,203 @@
 package com.kuaishou.commercial.utility.plugin
 
+import com.android.build.api.transform.Format
 import com.android.build.api.transform.TransformInvocation
+import com.android.build.gradle.internal.pipeline.TransformManager
+import com.android.SdkConstants
+import org.gradle.api.logging.Logging
 import groovyjarjarasm.asm.Opcodes.ASM7
 import org.objectweb.asm.Opcodes.*
 import org.objectweb.asm.ClassReader
 import org.objectweb.asm.ClassVisitor
 import org.objectweb.asm.ClassWriter
 import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Type
 import org.objectweb.asm.tree.ClassNode
 import java.io.File
-import java.io.FileOutputStream
-import java.util.jar.JarEntry
 import java.util.jar.JarFile
-import java.util.zip.ZipEntry
 
-open class IOCRegisterTransform : AbsInstrumentationTransform() {
-  private var collectionFile: File? = null
-  private var jarFile: File? = null
-  private var jarFileName: String? = null
+open class IOCRegisterTransform(
+  private val extension: IOCRegisterExtension? = null
+) : AbsInstrumentationTransform() {
+  //扫描结果，增量构建时从上次的状态恢复
+  private var state = ScanState()
 
+  //本次构建是否重新输出了ServiceRegisterCollection所在的输入，重新输出后其字节码是未插桩的
+  @Volatile
+  private var collectorReprocessed = false
 
-  private val registerList = mutableListOf<String>()
-  private val registerCollectorName = mutableListOf<String>()
   override fun getName(): String {
     return "IOCRegisterTransform"
   }
 
-  override fun getClassVisitor(classVisitor: ClassVisitor): ClassVisitor {
-    //自定义ClassVisitor，将符合条件的扫描class添加到list中
-    return RegisterListClassVisitor(registerList, registerCollectorName, ASM7, classVisitor)
+  override fun getClassVisitor(classVisitor: ClassVisitor, inputFile: File): ClassVisitor {
+    //自定义ClassVisitor，将符合条件的扫描class按输入记录到state中
+    val input = inputFile.absolutePath
+    val next = if (rewriteServiceGet()) {
+      ServiceGetRewriteClassVisitor(state.accessorServicesOf(input), ASM7, classVisitor)
+    } else {
+      classVisitor
+    }
+    return RegisterListClassVisitor(state, input, ASM7, next)
   }
 
+  override fun getScanVisitor(inputFile: File): ClassVisitor {
+    return RegisterListClassVisitor(state, inputFile.absolutePath, ASM7, null)
+  }
 
-  override fun justScan(): Boolean {
+  override fun shouldScan(path: String, indexed: Boolean): Boolean {
+    //只有register和ioc包下的@RegisterCollector需要解析，有索引时register已从索引得到
+    return (!indexed && path.endsWith(REGISTER_SUFFIX)) || path.contains(IOC_PACKAGE)
+  }
+
+  override fun scanJarIndex(jar: JarFile, inputFile: File): Boolean {
+    val entries = jar.entries().asSequence().filter {
+      it.name.startsWith(ModuleBindings.INDEX_DIR) && it.name.endsWith(ModuleBindings.INDEX_SUFFIX)
+    }.toList()
+    if (entries.isEmpty()) {
+      return false
+    }
+    val modules = entries.map { entry ->
+      val lines = jar.getInputStream(entry).bufferedReader().use { it.readLines() }
+      //版本不认识或格式错误时整个jar退回字节码扫描
+      ModuleBindings.parseIndex(lines) ?: return false
+    }
+    val input = inputFile.absolutePath
+    modules.forEach {
+      logger.debug("IOCRegisterTransform: index ${it.registerClass} in ${inputFile.name}")
+      state.addRegister(input, it.registerClass)
+      state.bindings[it.registerClass] = it
+    }
     return true
   }
 
 
-  override fun scanFileEnd(inputFile: File, destFile: File) {
-    if (isRegisterFile(inputFile.name)) {
-      collectionFile = destFile
-    }
+  private fun resolvePriorityAtBuildTime(): Boolean {
+    return extension?.resolvePriorityAtBuildTime ?: true
+  }
+
+  private fun registerChunkSize(): Int {
+    return extension?.registerChunkSize?.takeIf { it > 0 } ?: DEFAULT_CHUNK_SIZE
+  }
+
+  override fun justScan(): Boolean {
+    return !rewriteServiceGet()
+  }
+
+  /**
+   * accessor需要全工程唯一，只在application的transform中开启
+   */
+  protected open fun rewriteServiceGet(): Boolean {
+    return extension?.rewriteServiceGet ?: false
+  }
+
+  //影响扫描和插桩结果的配置，变化后上次的状态失效
+  private fun options(): String {
+    return "v$STATE_VERSION,rewrite=${rewriteServiceGet()},resolve=${resolvePriorityAtBuildTime()}" +
+        ",chunk=${registerChunkSize()}"
   }
 
-  override fun scanJar(jarFile: JarFile, jarEntry: JarEntry) {
-    if (isRegisterFile(jarEntry.name)) {
-      jarFileName = jarFile.name
+  private fun stateFile(transformInvocation: TransformInvocation): File {
+    return File(transformInvocation.context.temporaryDir, "ioc-scan-state.bin")
+  }
+
+  override fun prepareIncremental(transformInvocation: TransformInvocation): Boolean {
+    val last = ScanState.load(stateFile(transformInvocation))
+    if (last == null || last.options != options()) {
+      logger.info("IOCRegisterTransform: scan state unavailable, full build")
+      return false
     }
+    state = last
+    return true
+  }
+
+  override fun forgetInput(inputFile: File) {
+    state.remove(inputFile.absolutePath)
+  }
+
+  override fun scanFileEnd(inputFile: File, destFile: File) {
+    collectorOutput(inputFile, destFile, false)
   }
 
   override fun scanJarEnd(inputFile: File, destFile: File) {
-    if (inputFile.absolutePath == jarFileName) {
-      jarFile = destFile
+    collectorOutput(inputFile, destFile, true)
+  }
+
+  private fun collectorOutput(inputFile: File, destFile: File, isJar: Boolean) {
+    if (state.collectorInput == inputFile.absolutePath) {
+      state.collectorDest = destFile.absolutePath
+      state.collectorInJar = isJar
+      collectorReprocessed = true
     }
   }
 
   override fun transform(transformInvocation: TransformInvocation?) {
     val startTime = System.currentTimeMillis()
+    state = ScanState()
+    state.options = options()
+    collectorReprocessed = false
     super.transform(transformInvocation)
+
+    val registerList = state.registers()
+    val collectorName = state.collectorName
+    val collectorDest = state.collectorDest
     println(
-      ">>> IOCRegisterRegister transform: registerCollectorName:  " +
-          "$registerCollectorName ,collectionFile:$collectionFile , registerList: $registerList ，" +
-          " jarFile : $jarFile"
+      ">>> IOCRegisterRegister transform: registerCollectorName: $collectorName , " +
+          "dest: $collectorDest , registerList: $registerList"
     )
 
-    if (registerCollectorName.size > 0) {
-      if (jarFile == null && collectionFile != null) {
-        println(">>> IOCRegisterRegister transform collectionFile: ${collectionFile!!.name}}")
-        //直接处理class文件
-        val bytes = modifyRegisterByte(collectionFile!!.readBytes())
-        val outputStream = FileOutputStream(collectionFile!!)
-        outputStream.write(bytes)
-        outputStream.close()
-      } else if (jarFile != null) {
-        println(">>> IOCRegisterRegister transform jarFile:${(jarFile!!.name)}")
-        //处理jar
-        Utils.dealJarFile(jarFile!!) { jarEntry, jos, bakJarFile ->
-          if (jarEntry.name.contains(registerCollectorName[0])) {
-            val inputStream = bakJarFile.getInputStream(jarEntry)
-            jos.putNextEntry(ZipEntry(jarEntry.name))
-            jos.write(modifyRegisterByte(Utils.readNBytes(inputStream, inputStream.available())))
-            inputStream.close()
-            return@dealJarFile true
-          }
-          return@dealJarFile false
-        }
+    //增量构建时collector未重新输出且register没有变化，上次插桩的结果仍然有效
+    val signature = state.registerSignature()
+    if (collectorName != null && collectorDest != null) {
+      if (collectorReprocessed || signature != state.lastRegisterSignature) {
+        writeCollector(collectorName, File(collectorDest), state.collectorInJar, registerList)
+        state.lastRegisterSignature = signature
+      } else {
+        logger.info("IOCRegisterTransform: registers unchanged, skip $collectorName")
       }
     }
+    val accessors = state.accessorServices()
+    val lastAccessors = state.lastAccessorServices ?: emptySet()
+    if (accessors != lastAccessors) {
+      writeAccessors(accessors, lastAccessors)
+    }
+    state.lastAccessorServices = accessors
+    transformInvocation?.let { state.save(stateFile(it)) }
     println(">>> IOCRegisterTransform cost: ${System.currentTimeMillis() - startTime}ms")
   }
 
+  private fun writeCollector(name: String, dest: File, isJar: Boolean, registerList: List<String>) {
+    if (!isJar) {
+      println(">>> IOCRegisterRegister transform collectionFile: ${dest.name}")
+      //直接处理class文件
+      Utils.writeBytes(dest, modifyRegisterByte(dest.readBytes(), registerList))
+    } else {
+      println(">>> IOCRegisterRegister transform jarFile:${dest.name}")
+      //处理jar，只改写collector，其余entry原样拷贝
+      val entryName = name + SdkConstants.DOT_CLASS
+      Utils.dealJarFile(dest, { it == entryName }) { modifyRegisterByte(it, registerList) }
+    }
+  }
+
+  //为改写过的service生成accessor类，输出到单独的目录，删除不再需要的accessor
+  private fun writeAccessors(accessors: Set<String>, last: Set<String>) {
+    val dir = outputProvider.getContentLocation(
+      "iocAccessors", TransformManager.CONTENT_CLASS, scopes, Format.DIRECTORY
+    )
+    (last - accessors).forEach { service ->
+      File(dir, ServiceGetRewriteClassVisitor.accessorName(service) + ".class").delete()
+    }
+    accessors.forEach { service ->
+      val file = File(dir, ServiceGetRewriteClassVisitor.accessorName(service) + ".class")
+      file.parentFile.mkdirs()
+      file.writeBytes(ServiceGetRewriteClassVisitor.generateAccessor(service))
+    }
+    logger.info("IOCRegisterTransform: accessors: ${accessors.size}")
+  }
+
   //生成register代码
-  private fun modifyRegisterByte(ins: ByteArray): ByteArray {
+  private fun modifyRegisterByte(ins: ByteArray, registerList: List<String>): ByteArray {
     val cr: ClassReader?
     try {
       cr = ClassReader(ins)
@@ -101,52 +207,215 @@ open class IOCRegisterTransform : AbsInstrumentationTransform() {
     }
     println(">>> modifyRegisterByte registerList：${registerList}")
 
-    val classWriter = ClassWriter(0)
+    val classWriter = ClassWriter(ClassWriter.COMPUTE_MAXS)
     val cn = ClassNode()
     cr.accept(cn, 0)
 
-    cn.methods.removeIf { it.name == "register" && "()V" == it.desc }
+    //增量构建时collector可能是上次插桩的结果，先去掉上次生成的方法
+    cn.methods.removeIf {
+      (it.name == "register" && "()V" == it.desc) || it.name.startsWith(CHUNK_METHOD_PREFIX)
+    }
 
-    val methodVisitor =
-      classWriter.visitMethod(ACC_PUBLIC or ACC_STATIC, "register", "()V", null, null)
-    methodVisitor.visitCode()
+    //没有@RegisterBindings的register（旧版本processor生成）仍调用其register，在运行期比较优先级
+    val merged = if (resolvePriorityAtBuildTime()) {
+      registerList.mapNotNull { state.bindings[it] }.filter { it.isValid() }
+    } else {
+      emptyList()
+    }
+    val mergedNames = merged.map { it.registerClass }.toSet()
+    val chunks = RegisterChunkWriter(classWriter, registerChunkSize())
+    val result = if (merged.isNotEmpty()) writeMergedRegister(chunks, merged) else null
 
-    registerList.forEach { name ->
-      val label = Label()
-      methodVisitor.visitLabel(label);
-      methodVisitor.visitTypeInsn(NEW, name)
-      methodVisitor.visitInsn(DUP)
-      methodVisitor.visitMethodInsn(
+    registerList.filter { !mergedNames.contains(it) }.forEach { name ->
+      val mv = chunks.next()
+      mv.visitTypeInsn(NEW, name)
+      mv.visitInsn(DUP)
+      mv.visitMethodInsn(
         INVOKESPECIAL,
         name, "<init>", "()V", false
       )
-      methodVisitor.visitMethodInsn(
+      mv.visitMethodInsn(
         INVOKEVIRTUAL,
         name, "register", "()V",
         false
       )
     }
+    chunks.end()
+
+    //register只预留slot并依次调用各个分段
+    val methodVisitor =
+      classWriter.visitMethod(ACC_PUBLIC or ACC_STATIC, "register", "()V", null, null)
+    methodVisitor.visitCode()
+    if (result != null) {
+      pushInt(methodVisitor, result.singles.size)
+      methodVisitor.visitMethodInsn(INVOKESTATIC, SERVICE_MANAGER, "reserveSlots", "(I)V", false)
+    }
+    chunks.methods.forEach {
+      methodVisitor.visitMethodInsn(INVOKESTATIC, cn.name, it, "()V", false)
+    }
+    logger.info("IOCRegisterTransform: register split into ${chunks.methods.size} methods")
 
     val labelReturn = Label()
     methodVisitor.visitLabel(labelReturn)
     methodVisitor.visitInsn(RETURN)
+    methodVisitor.visitMaxs(0, 0)
     methodVisitor.visitEnd()
     cn.accept(classWriter)
     return classWriter.toByteArray()
   }
 
+  /**
+   * 合并后直接注册：每个接口只注册胜出的factory，落选的factory类不会被加载
+   */
+  private fun writeMergedRegister(
+    chunks: RegisterChunkWriter,
+    modules: List<ModuleBindings>
+  ): BindingsMerger.Result {
+    val result = BindingsMerger.merge(modules)
+    result.warnings.forEach { logger.warn("w: IOCRegisterTransform: $it") }
+    logger.info(
+      "IOCRegisterTransform: merged ${modules.size} modules, " +
+          "${result.singles.size} services, ${result.sets.size} set bindings"
+    )
+
+    result.singles.forEach { writeBinding(chunks, it) }
+    result.sets.forEach { writeBinding(chunks, it) }
+
+    modules.sortedBy { it.registerClass }.filter { it.warmUpOrder.isNotEmpty() }.forEach {
+      val mv = chunks.next()
+      pushInt(mv, it.warmUpOrder.size)
+      mv.visitTypeInsn(ANEWARRAY, "java/lang/Class")
+      it.warmUpOrder.forEachIndexed { i, service ->
+        mv.visitInsn(DUP)
+        pushInt(mv, i)
+        mv.visitLdcInsn(Type.getObjectType(service))
+        mv.visitInsn(AASTORE)
+      }
+      mv.visitMethodInsn(
+        INVOKESTATIC, SERVICE_MANAGER, "addWarmUpOrder", "([Ljava/lang/Class;)V", false
+      )
+    }
 
-  private fun isRegisterFile(name: String): Boolean {
-    if (name.contains("ServiceRegisterCollection")) {
-      println("IOCRegisterRegister scanJar jarEntry.name : ${(name)} , registerCollectorName: $registerCollectorName")
+    //只有胜出的factory的预创建提示生效
+    result.singles.filter { it.preload != 0 }.forEach {
+      val mv = chunks.next()
+      mv.visitLdcInsn(Type.getObjectType(it.service))
+      pushInt(mv, it.preload)
+      pushInt(mv, it.preloadPriority)
+      mv.visitMethodInsn(
+        INVOKESTATIC, SERVICE_MANAGER, "addPreload", "(Ljava/lang/Class;II)V", false
+      )
     }
+    return result
+  }
 
-    return if (registerCollectorName.size > 0) {
-      name.contains(
-        registerCollectorName[0]
+  private fun writeBinding(chunks: RegisterChunkWriter, binding: Binding) {
+    val mv = chunks.next()
+    if (binding.module.lazy) {
+      val provider = chunks.provider(binding.module.registerClass)
+      mv.visitLdcInsn(Type.getObjectType(binding.service))
+      mv.visitVarInsn(ALOAD, provider)
+      pushInt(mv, binding.index)
+      pushInt(mv, binding.priority)
+      mv.visitMethodInsn(
+        INVOKESTATIC, SERVICE_MANAGER,
+        if (binding.intoSet) "registerLazyIntoSet" else "registerLazy",
+        "(Ljava/lang/Class;${FACTORY_PROVIDER_DESC}II)V", false
       )
     } else {
-      false
+      mv.visitLdcInsn(Type.getObjectType(binding.service))
+      mv.visitTypeInsn(NEW, binding.factory)
+      mv.visitInsn(DUP)
+      mv.visitMethodInsn(INVOKESPECIAL, binding.factory, "<init>", "()V", false)
+      pushInt(mv, binding.priority)
+      mv.visitMethodInsn(
+        INVOKESTATIC, SERVICE_MANAGER,
+        if (binding.intoSet) "registerIntoSet" else "register",
+        "(Ljava/lang/Class;${FACTORY_DESC}I)V", false
+      )
+    }
+  }
+
+  /**
+   * 按语句数把注册代码拆分到collector的多个私有静态方法中，每个方法不超过chunkSize条注册语句
+   */
+  private class RegisterChunkWriter(
+    private val cv: ClassVisitor,
+    private val chunkSize: Int
+  ) {
+    //已生成的分段方法名，按调用顺序
+    val methods = ArrayList<String>()
+    private var mv: MethodVisitor? = null
+    private var count = 0
+    //延迟注册的模块需要register实例作为FactoryProvider，每个分段内每个模块创建一次存入局部变量
+    private val providers = HashMap<String, Int>()
+
+    /**
+     * 下一条注册语句写入的方法，当前分段已满时开始新的分段
+     */
+    fun next(): MethodVisitor {
+      val current = mv
+      if (current != null && count < chunkSize) {
+        count++
+        return current
+      }
+      end()
+      val name = CHUNK_METHOD_PREFIX + methods.size
+      methods.add(name)
+      val created =
+        cv.visitMethod(ACC_PRIVATE or ACC_STATIC or ACC_SYNTHETIC, name, "()V", null, null)
+      created.visitCode()
+      mv = created
+      count = 1
+      return created
     }
+
+    /**
+     * 当前分段中模块register实例所在的局部变量
+     */
+    fun provider(registerClass: String): Int {
+      providers[registerClass]?.let { return it }
+      val current = mv!!
+      val index = providers.size
+      current.visitTypeInsn(NEW, registerClass)
+      current.visitInsn(DUP)
+      current.visitMethodInsn(INVOKESPECIAL, registerClass, "<init>", "()V", false)
+      current.visitVarInsn(ASTORE, index)
+      providers[registerClass] = index
+      return index
+    }
+
+    fun end() {
+      val current = mv ?: return
+      current.visitInsn(RETURN)
+      current.visitMaxs(0, 0)
+      current.visitEnd()
+      mv = null
+      providers.clear()
+    }
+  }
+
+  private fun pushInt(mv: MethodVisitor, value: Int) {
+    when (value) {
+      in -1..5 -> mv.visitInsn(ICONST_0 + value)
+      in Byte.MIN_VALUE..Byte.MAX_VALUE -> mv.visitIntInsn(BIPUSH, value)
+      in Short.MIN_VALUE..Short.MAX_VALUE -> mv.visitIntInsn(SIPUSH, value)
+      else -> mv.visitLdcInsn(value)
+    }
+  }
+
+
+  companion object {
+    private const val SERVICE_MANAGER = "com/kuaishou/commercial/utility/ioc/ServiceManager"
+    private const val FACTORY_DESC = "Lcom/kuaishou/commercial/utility/ioc/core/Factory;"
+    private const val FACTORY_PROVIDER_DESC =
+      "Lcom/kuaishou/commercial/utility/ioc/core/FactoryProvider;"
+    private const val STATE_VERSION = 2
+    private const val DEFAULT_CHUNK_SIZE = 200
+    //插入到collector中的分段方法名前缀
+    private const val CHUNK_METHOD_PREFIX = "register\$ioc"
+    private const val REGISTER_SUFFIX = "CommercialServiceRegister.class"
+    private const val IOC_PACKAGE = "com/kuaishou/commercial/utility/ioc/"
+    private val logger = Logging.getLogger(IOCRegisterTransform::class.java)
   }
-}
\ No newline at end of file
+}
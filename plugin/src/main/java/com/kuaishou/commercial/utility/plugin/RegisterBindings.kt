@@ -0,0 +1,192 @@
+package com.kuaishou.commercial.utility.plugin
+
+import org.objectweb.asm.AnnotationVisitor
+import org.objectweb.asm.Type
+import java.io.Serializable
+import java.util.TreeMap
+
+/**
+ * 一个模块的CommercialServiceRegister上@RegisterBindings记录的绑定，类名均为internal name
+ */
+class ModuleBindings(val registerClass: String) : Serializable {
+  val services = mutableListOf<String>()
+  val factories = mutableListOf<String>()
+  val priorities = mutableListOf<Int>()
+  val intoSet = mutableListOf<Boolean>()
+  val warmUpOrder = mutableListOf<String>()
+  //为空表示模块内都不预创建，否则与factories一一对应
+  val preloads = mutableListOf<Int>()
+  val preloadPriorities = mutableListOf<Int>()
+  var lazy = false
+
+  fun isValid(): Boolean {
+    return services.size == factories.size
+        && services.size == priorities.size
+        && services.size == intoSet.size
+        && (preloads.isEmpty() || services.size == preloads.size)
+        && preloads.size == preloadPriorities.size
+  }
+
+  fun signature(): String {
+    return "$lazy$services$factories$priorities$intoSet$warmUpOrder$preloads$preloadPriorities"
+  }
+
+  /**
+   * 解析@RegisterBindings，基本类型数组可能整体通过visit回调，也可能逐个元素回调
+   */
+  fun annotationVisitor(api: Int, next: AnnotationVisitor?): AnnotationVisitor {
+    return object : AnnotationVisitor(api, next) {
+      override fun visit(name: String?, value: Any?) {
+        super.visit(name, value)
+        when (name) {
+          "lazy" -> lazy = value as Boolean
+          "priorities" -> (value as IntArray).forEach { priorities.add(it) }
+          "intoSet" -> (value as BooleanArray).forEach { intoSet.add(it) }
+          "preloads" -> (value as IntArray).forEach { preloads.add(it) }
+          "preloadPriorities" -> (value as IntArray).forEach { preloadPriorities.add(it) }
+        }
+      }
+
+      override fun visitArray(name: String?): AnnotationVisitor {
+        val nextArray = super.visitArray(name)
+        return object : AnnotationVisitor(api, nextArray) {
+          override fun visit(elementName: String?, value: Any?) {
+            super.visit(elementName, value)
+            when (name) {
+              "services" -> services.add((value as Type).internalName)
+              "factories" -> factories.add((value as Type).internalName)
+              "warmUpOrder" -> warmUpOrder.add((value as Type).internalName)
+              "priorities" -> priorities.add(value as Int)
+              "intoSet" -> intoSet.add(value as Boolean)
+              "preloads" -> preloads.add(value as Int)
+              "preloadPriorities" -> preloadPriorities.add(value as Int)
+            }
+          }
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val serialVersionUID = 1L
+    const val DESC = "Lcom/kuaishou/commercial/utility/ioc/register/RegisterBindings;"
+
+    //与processor中RegisterClassCreatorProxy.generateIndex的格式一致
+    const val INDEX_DIR = "META-INF/ioc/"
+    const val INDEX_SUFFIX = ".idx"
+    //版本2增加了preload行，版本1仍可读取
+    private const val MIN_INDEX_VERSION = 1
+    private const val INDEX_VERSION = 2
+
+    /**
+     * 解析processor生成的模块索引
+     * @return 版本不支持或格式错误时返回null
+     */
+    fun parseIndex(lines: List<String>): ModuleBindings? {
+      val rows = lines.filter { it.isNotBlank() }.map { it.split('\t') }
+      if (rows.isEmpty() || rows[0].size != 2 || rows[0][0] != "ioc-index"
+        || rows[0][1].toIntOrNull() !in MIN_INDEX_VERSION..INDEX_VERSION
+      ) {
+        return null
+      }
+      val register = rows.firstOrNull { it[0] == "register" && it.size == 2 } ?: return null
+      val bindings = ModuleBindings(register[1])
+      val preloads = HashMap<String, Pair<Int, Int>>()
+      for (row in rows.drop(1)) {
+        when (row[0]) {
+          "register" -> {
+          }
+          "lazy" -> bindings.lazy = row.getOrNull(1)?.toBoolean() ?: return null
+          "binding" -> {
+            if (row.size != 5) {
+              return null
+            }
+            bindings.services.add(row[1])
+            bindings.factories.add(row[2])
+            bindings.priorities.add(row[3].toIntOrNull() ?: return null)
+            bindings.intoSet.add(row[4].toBoolean())
+          }
+          "preload" -> {
+            if (row.size != 4) {
+              return null
+            }
+            preloads[row[1]] = Pair(row[2].toIntOrNull() ?: return null,
+              row[3].toIntOrNull() ?: return null)
+          }
+          "warmup" -> bindings.warmUpOrder.add(row.getOrNull(1) ?: return null)
+          else -> return null
+        }
+      }
+      //与注解一致，有预创建时按factory展开成一一对应的数组
+      if (preloads.isNotEmpty()) {
+        if (!bindings.factories.containsAll(preloads.keys)) {
+          return null
+        }
+        bindings.factories.forEach {
+          val preload = preloads[it]
+          bindings.preloads.add(preload?.first ?: 0)
+          bindings.preloadPriorities.add(preload?.second ?: 0)
+        }
+      }
+      return bindings
+    }
+  }
+}
+
+/**
+ * 一条绑定，index是在所属模块中的下标，延迟注册时用于FactoryProvider.getFactory
+ */
+class Binding(
+  val service: String,
+  val factory: String,
+  val priority: Int,
+  val intoSet: Boolean,
+  val module: ModuleBindings,
+  val index: Int,
+  val preload: Int = 0,
+  val preloadPriority: Int = 0
+)
+
+/**
+ * 在构建期合并所有模块的绑定：同一接口只保留优先级最高的factory，多绑定全部保留。
+ * 同优先级时与运行期一致，后注册的生效，模块按register类名排序保证结果稳定，并给出警告。
+ */
+object BindingsMerger {
+
+  class Result(
+    val singles: List<Binding>,
+    val sets: List<Binding>,
+    val warnings: List<String>
+  )
+
+  fun merge(modules: Collection<ModuleBindings>): Result {
+    val winners = TreeMap<String, Binding>()
+    val sets = mutableListOf<Binding>()
+    val warnings = mutableListOf<String>()
+    modules.sortedBy { it.registerClass }.forEach { module ->
+      module.services.indices.forEach { i ->
+        val binding = Binding(
+          module.services[i], module.factories[i], module.priorities[i], module.intoSet[i],
+          module, i,
+          module.preloads.getOrElse(i) { 0 }, module.preloadPriorities.getOrElse(i) { 0 }
+        )
+        if (binding.intoSet) {
+          sets.add(binding)
+          return@forEach
+        }
+        val current = winners[binding.service]
+        if (current == null || current.priority < binding.priority) {
+          winners[binding.service] = binding
+        } else if (current.priority == binding.priority) {
+          warnings.add(
+            "${binding.service.replace('/', '.')} has factories with equal priority " +
+                "${binding.priority}: ${current.factory.replace('/', '.')} and " +
+                "${binding.factory.replace('/', '.')}, the latter is used"
+          )
+          winners[binding.service] = binding
+        }
+      }
+    }
+    return Result(winners.values.toList(), sets, warnings)
+  }
+}
@@ -4,14 +4,18 @@ import org.objectweb.asm.AnnotationVisitor
 import org.objectweb.asm.ClassVisitor
 import org.objectweb.asm.Opcodes
 
+/**
+ * 扫描CommercialServiceRegister和@RegisterCollector类，结果按输入记录到ScanState
+ */
 class RegisterListClassVisitor(
-  private val registerList: MutableList<String>,
-  private val registerCollectorName: MutableList<String>,
-  accessFlag: Int, classVisitor: ClassVisitor
+  private val state: ScanState,
+  private val input: String,
+  accessFlag: Int, classVisitor: ClassVisitor?
 ) :
   ClassVisitor(accessFlag, classVisitor), Opcodes {
 
   private var mName: String = ""
+  private var mIsRegister = false
   override fun visit(
     version: Int,
     access: Int,
@@ -33,15 +37,19 @@ class RegisterListClassVisitor(
     println(">>> RegisterListClassVisitor,add name: $name , interfaces: ${interfaces[0]}")
 
     //将各个module的CommercialServiceRegister添加进来
-    registerList.add(name)
+    state.addRegister(input, name)
+    mIsRegister = true
   }
 
-  override fun visitAnnotation(desc: String?, visible: Boolean): AnnotationVisitor {
-    if (registerCollectorName.size <= 0 &&
-      desc != null &&
-      desc.endsWith("RegisterCollector;")
-    ) {
-      registerCollectorName.add(mName)
+  override fun visitAnnotation(desc: String?, visible: Boolean): AnnotationVisitor? {
+    if (mIsRegister && desc == ModuleBindings.DESC) {
+      //记录模块的绑定，构建期合并优先级
+      val bindings = ModuleBindings(mName)
+      state.bindings[mName] = bindings
+      return bindings.annotationVisitor(api, super.visitAnnotation(desc, visible))
+    }
+    if (desc != null && desc.endsWith("RegisterCollector;")) {
+      state.setCollector(input, mName)
     }
     return super.visitAnnotation(desc, visible)
   }
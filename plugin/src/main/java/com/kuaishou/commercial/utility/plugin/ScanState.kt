@@ -0,0 +1,113 @@
+package com.kuaishou.commercial.utility.plugin
+
+import org.gradle.api.logging.Logging
+import java.io.File
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.Serializable
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * transform的扫描结果，按输入（目录中的class文件或jar）记录，增量构建时持久化到临时目录，
+ * 未变化的输入不再重新扫描
+ */
+class ScanState : Serializable {
+  //影响扫描结果的插件配置，变化后需要全量构建
+  var options: String = ""
+
+  //输入 -> 其中的CommercialServiceRegister类名
+  private val registers = ConcurrentHashMap<String, MutableSet<String>>()
+
+  //register类名 -> 其上@RegisterBindings记录的绑定
+  val bindings = ConcurrentHashMap<String, ModuleBindings>()
+
+  //输入 -> 其中改写过ServiceManager.get调用的service接口
+  private val accessorServices = ConcurrentHashMap<String, MutableSet<String>>()
+
+  //@RegisterCollector类及其所在的输入和输出
+  @Volatile
+  var collectorName: String? = null
+  @Volatile
+  var collectorInput: String? = null
+  @Volatile
+  var collectorDest: String? = null
+  @Volatile
+  var collectorInJar = false
+
+  //上次插桩ServiceRegisterCollection时的register签名，不变时跳过插桩
+  var lastRegisterSignature: String? = null
+
+  //上次生成的accessor
+  var lastAccessorServices: Set<String>? = null
+
+  fun addRegister(input: String, name: String) {
+    registers.computeIfAbsent(input) { ConcurrentHashMap.newKeySet() }.add(name)
+  }
+
+  fun accessorServicesOf(input: String): MutableSet<String> {
+    return accessorServices.computeIfAbsent(input) { ConcurrentHashMap.newKeySet() }
+  }
+
+  @Synchronized
+  fun setCollector(input: String, name: String) {
+    if (collectorName == null) {
+      collectorName = name
+      collectorInput = input
+    }
+  }
+
+  /**
+   * 输入被删除或即将重新扫描时，清除其上次的扫描结果
+   */
+  @Synchronized
+  fun remove(input: String) {
+    registers.remove(input)?.forEach { bindings.remove(it) }
+    accessorServices.remove(input)
+    if (collectorInput == input) {
+      collectorName = null
+      collectorInput = null
+      collectorDest = null
+    }
+  }
+
+  /**
+   * 所有register，排序保证生成结果稳定
+   */
+  fun registers(): List<String> {
+    return registers.values.flatten().distinct().sorted()
+  }
+
+  fun accessorServices(): Set<String> {
+    return accessorServices.values.flatten().toSortedSet()
+  }
+
+  fun registerSignature(): String {
+    return registers().joinToString("|", prefix = "$collectorName:") { name ->
+      name + (bindings[name]?.signature() ?: "")
+    }
+  }
+
+  fun save(file: File) {
+    file.parentFile.mkdirs()
+    ObjectOutputStream(file.outputStream().buffered()).use { it.writeObject(this) }
+  }
+
+  companion object {
+    private const val serialVersionUID = 1L
+
+    /**
+     * @return 上次保存的状态，不存在或无法读取时返回null
+     */
+    fun load(file: File): ScanState? {
+      if (!file.isFile) {
+        return null
+      }
+      return try {
+        ObjectInputStream(file.inputStream().buffered()).use { it.readObject() as ScanState }
+      } catch (e: Exception) {
+        Logging.getLogger(ScanState::class.java).info("ScanState: load failed: $e")
+        null
+      }
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package com.kuaishou.commercial.utility.plugin
+
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Handle
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+
+/**
+ * 将常量class的ServiceManager.get(X.class)改写为X$$IocAccessor.get()，
+ * 非常量class的调用保持原样
+ */
+class ServiceGetRewriteClassVisitor(
+  private val accessorServices: MutableSet<String>,
+  api: Int, classVisitor: ClassVisitor
+) : ClassVisitor(api, classVisitor) {
+
+  override fun visitMethod(
+    access: Int,
+    name: String?,
+    descriptor: String?,
+    signature: String?,
+    exceptions: Array<out String>?
+  ): MethodVisitor? {
+    val mv = super.visitMethod(access, name, descriptor, signature, exceptions) ?: return null
+    return ServiceGetRewriteMethodVisitor(api, mv)
+  }
+
+  private inner class ServiceGetRewriteMethodVisitor(api: Int, mv: MethodVisitor) :
+    MethodVisitor(api, mv) {
+    // 暂存的LDC X.class，只有紧跟着ServiceManager.get时才改写
+    private var pendingClass: Type? = null
+
+    private fun flush() {
+      pendingClass?.let { super.visitLdcInsn(it) }
+      pendingClass = null
+    }
+
+    override fun visitLdcInsn(value: Any?) {
+      flush()
+      if (value is Type && value.sort == Type.OBJECT) {
+        pendingClass = value
+      } else {
+        super.visitLdcInsn(value)
+      }
+    }
+
+    override fun visitMethodInsn(
+      opcode: Int,
+      owner: String?,
+      name: String?,
+      descriptor: String?,
+      isInterface: Boolean
+    ) {
+      val serviceClass = pendingClass
+      if (serviceClass != null && opcode == Opcodes.INVOKESTATIC && owner == SERVICE_MANAGER
+        && name == "get" && descriptor == GET_DESC
+      ) {
+        pendingClass = null
+        accessorServices.add(serviceClass.internalName)
+        super.visitMethodInsn(
+          Opcodes.INVOKESTATIC, accessorName(serviceClass.internalName), "get",
+          ACCESSOR_GET_DESC, false
+        )
+        return
+      }
+      flush()
+      super.visitMethodInsn(opcode, owner, name, descriptor, isInterface)
+    }
+
+    override fun visitInsn(opcode: Int) {
+      flush()
+      super.visitInsn(opcode)
+    }
+
+    override fun visitIntInsn(opcode: Int, operand: Int) {
+      flush()
+      super.visitIntInsn(opcode, operand)
+    }
+
+    override fun visitVarInsn(opcode: Int, `var`: Int) {
+      flush()
+      super.visitVarInsn(opcode, `var`)
+    }
+
+    override fun visitTypeInsn(opcode: Int, type: String?) {
+      flush()
+      super.visitTypeInsn(opcode, type)
+    }
+
+    override fun visitFieldInsn(opcode: Int, owner: String?, name: String?, descriptor: String?) {
+      flush()
+      super.visitFieldInsn(opcode, owner, name, descriptor)
+    }
+
+    override fun visitInvokeDynamicInsn(
+      name: String?,
+      descriptor: String?,
+      bootstrapMethodHandle: Handle?,
+      vararg bootstrapMethodArguments: Any?
+    ) {
+      flush()
+      super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, *bootstrapMethodArguments)
+    }
+
+    override fun visitJumpInsn(opcode: Int, label: Label?) {
+      flush()
+      super.visitJumpInsn(opcode, label)
+    }
+
+    override fun visitLabel(label: Label?) {
+      flush()
+      super.visitLabel(label)
+    }
+
+    override fun visitIincInsn(`var`: Int, increment: Int) {
+      flush()
+      super.visitIincInsn(`var`, increment)
+    }
+
+    override fun visitTableSwitchInsn(min: Int, max: Int, dflt: Label?, vararg labels: Label?) {
+      flush()
+      super.visitTableSwitchInsn(min, max, dflt, *labels)
+    }
+
+    override fun visitLookupSwitchInsn(dflt: Label?, keys: IntArray?, labels: Array<out Label>?) {
+      flush()
+      super.visitLookupSwitchInsn(dflt, keys, labels)
+    }
+
+    override fun visitMultiANewArrayInsn(descriptor: String?, numDimensions: Int) {
+      flush()
+      super.visitMultiANewArrayInsn(descriptor, numDimensions)
+    }
+
+    override fun visitFrame(
+      type: Int,
+      numLocal: Int,
+      local: Array<out Any>?,
+      numStack: Int,
+      stack: Array<out Any>?
+    ) {
+      flush()
+      super.visitFrame(type, numLocal, local, numStack, stack)
+    }
+
+    override fun visitLineNumber(line: Int, start: Label?) {
+      flush()
+      super.visitLineNumber(line, start)
+    }
+
+    override fun visitMaxs(maxStack: Int, maxLocals: Int) {
+      flush()
+      super.visitMaxs(maxStack, maxLocals)
+    }
+  }
+
+  companion object {
+    private const val SERVICE_MANAGER = "com/kuaishou/commercial/utility/ioc/ServiceManager"
+    private const val SERVICE_DESC = "Lcom/kuaishou/commercial/utility/ioc/interfaces/Service;"
+    private const val GET_DESC = "(Ljava/lang/Class;)$SERVICE_DESC"
+    private const val ACCESSOR_GET_DESC = "()$SERVICE_DESC"
+    private const val SLOT_FIELD = "sSlot"
+
+    /**
+     * accessor与接口放在同一个包下，保证包内可见的接口也能访问
+     */
+    fun accessorName(serviceInternalName: String): String = "$serviceInternalName\$\$IocAccessor"
+
+    /**
+     * 生成X$$IocAccessor：
+     * <pre>
+     * static int sSlot = -1;
+     * public static Service get() {
+     *   int slot = sSlot;
+     *   if (slot < 0) { slot = sSlot = ServiceManager.slotOf(X.class); }
+     *   return ServiceManager.get(slot);
+     * }
+     * </pre>
+     * 快路径只有一次静态字段读取和一次数组下标访问
+     */
+    fun generateAccessor(serviceInternalName: String): ByteArray {
+      val accessorName = accessorName(serviceInternalName)
+      val cw = ClassWriter(ClassWriter.COMPUTE_MAXS)
+      cw.visit(
+        Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_FINAL or Opcodes.ACC_SUPER or Opcodes.ACC_SYNTHETIC,
+        accessorName, null, "java/lang/Object", null
+      )
+      cw.visitField(Opcodes.ACC_PRIVATE or Opcodes.ACC_STATIC, SLOT_FIELD, "I", null, null).visitEnd()
+
+      val clinit = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null)
+      clinit.visitCode()
+      clinit.visitInsn(Opcodes.ICONST_M1)
+      clinit.visitFieldInsn(Opcodes.PUTSTATIC, accessorName, SLOT_FIELD, "I")
+      clinit.visitInsn(Opcodes.RETURN)
+      clinit.visitMaxs(0, 0)
+      clinit.visitEnd()
+
+      val get = cw.visitMethod(
+        Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "get", ACCESSOR_GET_DESC, null, null
+      )
+      get.visitCode()
+      val fast = Label()
+      get.visitFieldInsn(Opcodes.GETSTATIC, accessorName, SLOT_FIELD, "I")
+      get.visitInsn(Opcodes.DUP)
+      get.visitJumpInsn(Opcodes.IFGE, fast)
+      get.visitInsn(Opcodes.POP)
+      get.visitLdcInsn(Type.getObjectType(serviceInternalName))
+      get.visitMethodInsn(
+        Opcodes.INVOKESTATIC, SERVICE_MANAGER, "slotOf", "(Ljava/lang/Class;)I", false
+      )
+      get.visitInsn(Opcodes.DUP)
+      get.visitFieldInsn(Opcodes.PUTSTATIC, accessorName, SLOT_FIELD, "I")
+      get.visitLabel(fast)
+      get.visitFrame(Opcodes.F_SAME1, 0, null, 1, arrayOf<Any>(Opcodes.INTEGER))
+      get.visitMethodInsn(Opcodes.INVOKESTATIC, SERVICE_MANAGER, "get", "(I)$SERVICE_DESC", false)
+      get.visitInsn(Opcodes.ARETURN)
+      get.visitMaxs(0, 0)
+      get.visitEnd()
+
+      cw.visitEnd()
+      return cw.toByteArray()
+    }
+  }
+}
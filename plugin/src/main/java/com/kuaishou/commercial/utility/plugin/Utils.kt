@@ -1,16 +1,18 @@
 package com.kuaishou.commercial.utility.plugin
 
 import com.android.SdkConstants
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream
+import org.apache.commons.compress.archivers.zip.ZipFile
+import org.apache.commons.io.FileUtils
 import java.io.EOFException
 import java.io.File
+import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import java.nio.file.Files
 import java.util.*
-import java.util.jar.JarEntry
-import java.util.jar.JarFile
-import java.util.jar.JarOutputStream
-import java.util.zip.ZipEntry
 
 object Utils {
   private const val DEFAULT_BUFFER_SIZE = 8192
@@ -296,9 +298,67 @@ object Utils {
   }
 
 
+  /**
+   * 拷贝未修改的文件：目标与源文件内容一致时跳过，否则优先创建硬链接，
+   * 不支持硬链接时（跨分区等）用FileChannel.transferTo拷贝
+   *
+   * 目标可能与输入共享inode，之后对目标的修改必须先删除再写入，见[writeBytes]
+   */
+  fun copyUnchanged(src: File, dest: File) {
+    if (dest.exists()) {
+      if (isSameContent(src, dest)) {
+        return
+      }
+      FileUtils.forceDelete(dest)
+    } else {
+      FileUtils.forceMkdirParent(dest)
+    }
+    try {
+      Files.createLink(dest.toPath(), src.toPath())
+      return
+    } catch (e: IOException) {
+    } catch (e: UnsupportedOperationException) {
+    } catch (e: SecurityException) {
+    }
+    FileInputStream(src).channel.use { input ->
+      FileOutputStream(dest).channel.use { output ->
+        val size = input.size()
+        var position = 0L
+        while (position < size) {
+          position += input.transferTo(position, size - position, output)
+        }
+      }
+    }
+  }
+
+  /**
+   * 写出插桩后的字节码，先删除旧文件，避免改写到硬链接共享的输入
+   */
+  fun writeBytes(dest: File, bytes: ByteArray) {
+    if (dest.exists()) {
+      FileUtils.forceDelete(dest)
+    } else {
+      FileUtils.forceMkdirParent(dest)
+    }
+    dest.writeBytes(bytes)
+  }
+
+  private fun isSameContent(src: File, dest: File): Boolean {
+    if (Files.isSameFile(src.toPath(), dest.toPath())) {
+      return true
+    }
+    return src.length() == dest.length() && FileUtils.contentEquals(src, dest)
+  }
+
+  /**
+   * 改写jar中的部分entry，其余entry直接拷贝压缩后的原始数据，不解压也不重新压缩
+   * @param shouldModify 按entry名称判断是否需要改写
+   * @param modify 输入原始字节码，返回改写后的字节码
+   */
   fun dealJarFile(
     jarFile: File,
-    callback: (jarEntry: JarEntry, jos: JarOutputStream, bakFile: JarFile) -> Boolean
+    shouldModify: (name: String) -> Boolean,
+    modify: (bytes: ByteArray) -> ByteArray
   ) {
     val jarAbsolutePath = jarFile.absolutePath
     val bakFilePath = jarAbsolutePath.substring(
@@ -306,27 +366,24 @@ object Utils {
       jarAbsolutePath.length - 4
     ) + System.currentTimeMillis() + SdkConstants.DOT_JAR
     val bakFile = File(bakFilePath)
-    jarFile.renameTo(bakFile)
-    val bakJarFile = JarFile(bakFilePath)
-    val jos = JarOutputStream(FileOutputStream(jarFile))
-    for (jarEntry in bakJarFile.entries()) {
-      if (!callback(jarEntry, jos, bakJarFile)) {
-        try {
-          jos.putNextEntry(ZipEntry(jarEntry))
-          val inputStream = bakJarFile.getInputStream(jarEntry)
-          jos.write(Utils.readNBytes(inputStream, inputStream.available()))
-          inputStream.close()
-        } catch (e: Throwable) {
-          throw e
+    //重命名不影响与输入共享的inode，新jar写到新文件
+    Files.move(jarFile.toPath(), bakFile.toPath())
+    ZipFile(bakFile).use { zip ->
+      ZipArchiveOutputStream(jarFile).use { zos ->
+        for (entry in zip.entriesInPhysicalOrder) {
+          if (shouldModify(entry.name)) {
+            val bytes = zip.getInputStream(entry).use { modify(readAllBytes(it)) }
+            val newEntry = ZipArchiveEntry(entry.name)
+            newEntry.time = entry.time
+            zos.putArchiveEntry(newEntry)
+            zos.write(bytes)
+            zos.closeArchiveEntry()
+          } else {
+            zos.addRawArchiveEntry(entry, zip.getRawInputStream(entry))
+          }
         }
       }
     }
-    with(jos) {
-      flush()
-      finish()
-      close()
-    }
-    bakJarFile.close()
     bakFile.delete()
   }
-}
\ No newline at end of file
+}
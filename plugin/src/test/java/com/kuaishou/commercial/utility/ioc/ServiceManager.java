@@ -0,0 +1,45 @@
+package com.kuaishou.commercial.utility.ioc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 测试用，与ioc-framework中的ServiceManager同名，只实现改写涉及的方法
+ */
+public final class ServiceManager {
+  private static final Map<Class<?>, Service> sServices = new HashMap<>();
+  private static final List<Class<?>> sSlots = new ArrayList<>();
+  public static int sSlotOfCount;
+  public static int sGetByClassCount;
+
+  private ServiceManager() {
+  }
+
+  public static void register(Class<? extends Service> serviceClass, Service service) {
+    sServices.put(serviceClass, service);
+  }
+
+  public static <T extends Service> T get(Class<T> serviceClass) {
+    sGetByClassCount++;
+    return serviceClass.cast(sServices.get(serviceClass));
+  }
+
+  public static int slotOf(Class<? extends Service> serviceClass) {
+    sSlotOfCount++;
+    int slot = sSlots.indexOf(serviceClass);
+    if (slot < 0) {
+      slot = sSlots.size();
+      sSlots.add(serviceClass);
+    }
+    return slot;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T extends Service> T get(int slot) {
+    return (T) sServices.get(sSlots.get(slot));
+  }
+}
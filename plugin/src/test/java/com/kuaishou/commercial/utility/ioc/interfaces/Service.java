@@ -0,0 +1,7 @@
+package com.kuaishou.commercial.utility.ioc.interfaces;
+
+/**
+ * 测试用，与ioc-framework中的Service同名
+ */
+public interface Service {
+}
@@ -0,0 +1,128 @@
+package com.kuaishou.commercial.utility.plugin
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 构建期合并各模块绑定，结果需与运行期按优先级覆盖的行为一致
+ */
+class BindingsMergerTest {
+
+  private fun module(registerClass: String, vararg bindings: Binding): ModuleBindings {
+    val module = ModuleBindings(registerClass)
+    bindings.forEach {
+      module.services.add(it.service)
+      module.factories.add(it.factory)
+      module.priorities.add(it.priority)
+      module.intoSet.add(it.intoSet)
+    }
+    //有任一预创建时与注解一致，按factory展开
+    if (bindings.any { it.preload != 0 }) {
+      bindings.forEach {
+        module.preloads.add(it.preload)
+        module.preloadPriorities.add(it.preloadPriority)
+      }
+    }
+    return module
+  }
+
+  //module和index由module()决定，这里只用于描述一行绑定
+  private fun binding(
+    service: String,
+    factory: String,
+    priority: Int = 0,
+    intoSet: Boolean = false,
+    preload: Int = 0
+  ) = Binding(service, factory, priority, intoSet, PLACEHOLDER, -1, preload, 0)
+
+  private fun factories(bindings: List<Binding>) = bindings.map { it.factory }
+
+  @Test
+  fun highestPriorityWins() {
+    val a = module("a/Register", binding("s/Feed", "a/FeedFactory", 10))
+    val b = module(
+      "b/Register",
+      binding("s/Feed", "b/FeedFactory", 5),
+      binding("s/Account", "b/AccountFactory")
+    )
+    val c = module("c/Register", binding("s/Feed", "c/FeedFactory", 1))
+
+    val result = BindingsMerger.merge(listOf(c, b, a))
+
+    //按接口名排序
+    assertEquals(listOf("b/AccountFactory", "a/FeedFactory"), factories(result.singles))
+    val feed = result.singles[1]
+    assertEquals(a, feed.module)
+    assertEquals(0, feed.index)
+    assertEquals(1, result.singles[0].index)
+    assertTrue(result.sets.isEmpty())
+    assertTrue(result.warnings.isEmpty())
+  }
+
+  @Test
+  fun equalPriorityKeepsLaterModuleAndWarns() {
+    val a = module("a/Register", binding("s/Feed", "a/FeedFactory", 3))
+    val b = module("b/Register", binding("s/Feed", "b/FeedFactory", 3))
+
+    //与传入顺序无关，按register类名排序后后者生效
+    listOf(listOf(a, b), listOf(b, a)).forEach {
+      val result = BindingsMerger.merge(it)
+      assertEquals(listOf("b/FeedFactory"), factories(result.singles))
+      assertEquals(
+        listOf(
+          "s.Feed has factories with equal priority 3: a.FeedFactory and b.FeedFactory," +
+              " the latter is used"
+        ),
+        result.warnings
+      )
+    }
+  }
+
+  @Test
+  fun intoSetBindingsAllKept() {
+    val a = module(
+      "a/Register",
+      binding("s/Plugin", "a/PluginFactory", 1, intoSet = true),
+      binding("s/Feed", "a/FeedFactory")
+    )
+    val b = module(
+      "b/Register",
+      binding("s/Plugin", "b/PluginFactory", 1, intoSet = true),
+      binding("s/Plugin", "b/OtherPluginFactory", 5, intoSet = true)
+    )
+
+    val result = BindingsMerger.merge(listOf(b, a))
+
+    assertEquals(
+      listOf("a/PluginFactory", "b/PluginFactory", "b/OtherPluginFactory"),
+      factories(result.sets)
+    )
+    assertEquals(listOf(0, 0, 1), result.sets.map { it.index })
+    //多绑定不参与单绑定的覆盖，也不产生警告
+    assertEquals(listOf("a/FeedFactory"), factories(result.singles))
+    assertTrue(result.warnings.isEmpty())
+  }
+
+  @Test
+  fun preloadsComeOnlyFromWinners() {
+    val a = module(
+      "a/Register",
+      binding("s/Feed", "a/FeedFactory", 1, preload = 2),
+      binding("s/Account", "a/AccountFactory")
+    )
+    val b = module("b/Register", binding("s/Feed", "b/FeedFactory", 5))
+    val c = module("c/Register", binding("s/Account", "c/AccountFactory", preload = 1))
+
+    val result = BindingsMerger.merge(listOf(a, b, c))
+
+    assertEquals(listOf("c/AccountFactory", "b/FeedFactory"), factories(result.singles))
+    //被覆盖的a/FeedFactory的预创建不保留
+    assertEquals(listOf(1, 0), result.singles.map { it.preload })
+    assertTrue(result.singles.none { it.factory == "a/FeedFactory" })
+  }
+
+  companion object {
+    private val PLACEHOLDER = ModuleBindings("")
+  }
+}
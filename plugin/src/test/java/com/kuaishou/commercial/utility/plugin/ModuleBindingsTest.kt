@@ -0,0 +1,122 @@
+package com.kuaishou.commercial.utility.plugin
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 解析processor生成的模块索引，格式见RegisterClassCreatorProxy.generateIndex
+ */
+class ModuleBindingsTest {
+
+  private fun index(version: String, vararg rows: String): List<String> {
+    return listOf("ioc-index\t$version") + rows
+  }
+
+  private fun parse(lines: List<String>): ModuleBindings {
+    val bindings = ModuleBindings.parseIndex(lines)
+    assertNotNull(lines.toString(), bindings)
+    return bindings!!
+  }
+
+  @Test
+  fun parsesVersion1() {
+    val bindings = parse(
+      index(
+        "1",
+        "register\tcom/demo/CommercialServiceRegister",
+        "lazy\tfalse",
+        "binding\ts/Feed\tdemo/FeedFactory\t10\tfalse",
+        "binding\ts/Plugin\tdemo/PluginFactory\t-1\ttrue",
+        "warmup\ts/Feed"
+      )
+    )
+
+    assertEquals("com/demo/CommercialServiceRegister", bindings.registerClass)
+    assertFalse(bindings.lazy)
+    assertEquals(listOf("s/Feed", "s/Plugin"), bindings.services)
+    assertEquals(listOf("demo/FeedFactory", "demo/PluginFactory"), bindings.factories)
+    assertEquals(listOf(10, -1), bindings.priorities)
+    assertEquals(listOf(false, true), bindings.intoSet)
+    assertEquals(listOf("s/Feed"), bindings.warmUpOrder)
+    assertTrue(bindings.preloads.isEmpty())
+    assertTrue(bindings.isValid())
+  }
+
+  @Test
+  fun parsesVersion2AndExpandsPreloads() {
+    val bindings = parse(
+      index(
+        "2",
+        "",
+        "register\tcom/demo/CommercialServiceRegister",
+        "lazy\ttrue",
+        "binding\ts/Feed\tdemo/FeedFactory\t0\tfalse",
+        "binding\ts/Account\tdemo/AccountFactory\t0\tfalse",
+        "binding\ts/Config\tdemo/ConfigFactory\t0\tfalse",
+        "preload\tdemo/ConfigFactory\t2\t7",
+        "preload\tdemo/FeedFactory\t1\t3",
+        "   "
+      )
+    )
+
+    assertTrue(bindings.lazy)
+    //按factories的顺序展开，未声明的为0
+    assertEquals(listOf(1, 0, 2), bindings.preloads)
+    assertEquals(listOf(3, 0, 7), bindings.preloadPriorities)
+    assertTrue(bindings.isValid())
+  }
+
+  @Test
+  fun noPreloadRowsKeepsPreloadsEmpty() {
+    val bindings = parse(
+      index(
+        "2",
+        "register\tcom/demo/CommercialServiceRegister",
+        "binding\ts/Feed\tdemo/FeedFactory\t0\tfalse"
+      )
+    )
+
+    assertTrue(bindings.preloads.isEmpty())
+    assertTrue(bindings.preloadPriorities.isEmpty())
+    assertTrue(bindings.isValid())
+  }
+
+  @Test
+  fun unsupportedVersionReturnsNull() {
+    val register = "register\tcom/demo/CommercialServiceRegister"
+    listOf("0", "3", "x", "").forEach {
+      assertNull(it, ModuleBindings.parseIndex(index(it, register)))
+    }
+    assertNull(ModuleBindings.parseIndex(listOf("ioc-index\t2\textra", register)))
+    assertNull(ModuleBindings.parseIndex(listOf("index\t2", register)))
+    assertNull(ModuleBindings.parseIndex(listOf(register)))
+    assertNull(ModuleBindings.parseIndex(emptyList()))
+  }
+
+  @Test
+  fun malformedRowsReturnNull() {
+    val register = "register\tcom/demo/CommercialServiceRegister"
+    val binding = "binding\ts/Feed\tdemo/FeedFactory\t0\tfalse"
+    listOf(
+      //缺少register
+      listOf(binding),
+      listOf("register", binding),
+      listOf(register, "binding\ts/Feed\tdemo/FeedFactory\t0"),
+      listOf(register, "binding\ts/Feed\tdemo/FeedFactory\thigh\tfalse"),
+      listOf(register, binding, "preload\tdemo/FeedFactory\t1"),
+      listOf(register, binding, "preload\tdemo/FeedFactory\tx\t0"),
+      listOf(register, binding, "preload\tdemo/FeedFactory\t1\tx"),
+      //预创建的factory不在绑定中
+      listOf(register, binding, "preload\tdemo/OtherFactory\t1\t0"),
+      listOf(register, "lazy"),
+      listOf(register, "warmup"),
+      listOf(register, binding, "unknown\tvalue")
+    ).forEach {
+      assertNull(it.toString(), ModuleBindings.parseIndex(index("2", *it.toTypedArray())))
+    }
+  }
+}
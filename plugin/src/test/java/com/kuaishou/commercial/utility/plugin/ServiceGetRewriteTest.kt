@@ -0,0 +1,117 @@
+package com.kuaishou.commercial.utility.plugin
+
+import com.kuaishou.commercial.utility.ioc.ServiceManager
+import com.kuaishou.commercial.utility.plugin.fixture.Caller
+import com.kuaishou.commercial.utility.plugin.fixture.DemoService
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.LdcInsnNode
+import org.objectweb.asm.tree.MethodInsnNode
+
+/**
+ * 改写常量class的ServiceManager.get，并在JVM中加载改写结果和生成的accessor，由校验器检查栈帧
+ */
+class ServiceGetRewriteTest {
+  private val callerName = Type.getInternalName(Caller::class.java)
+  private val serviceName = Type.getInternalName(DemoService::class.java)
+  private val accessorName = ServiceGetRewriteClassVisitor.accessorName(serviceName)
+  private val accessorServices = mutableSetOf<String>()
+  private lateinit var rewritten: ByteArray
+
+  @Before
+  fun setUp() {
+    val bytes = Caller::class.java.getResourceAsStream("/$callerName.class")!!
+      .use { it.readBytes() }
+    //与AbsInstrumentationTransform.transformSingleFile的参数一致
+    val classReader = ClassReader(bytes)
+    val classWriter = ClassWriter(classReader, ClassWriter.COMPUTE_MAXS)
+    classReader.accept(
+      ServiceGetRewriteClassVisitor(accessorServices, Opcodes.ASM7, classWriter),
+      ClassReader.EXPAND_FRAMES
+    )
+    rewritten = classWriter.toByteArray()
+    ServiceManager.sSlotOfCount = 0
+    ServiceManager.sGetByClassCount = 0
+  }
+
+  private fun calls(method: String): List<String> {
+    val node = ClassNode()
+    ClassReader(rewritten).accept(node, 0)
+    return node.methods.first { it.name == method }.instructions.toArray()
+      .filterIsInstance<MethodInsnNode>()
+      .map { "${it.owner}.${it.name}${it.desc}" }
+  }
+
+  private fun constants(method: String): List<Any> {
+    val node = ClassNode()
+    ClassReader(rewritten).accept(node, 0)
+    return node.methods.first { it.name == method }.instructions.toArray()
+      .filterIsInstance<LdcInsnNode>()
+      .map { it.cst }
+  }
+
+  @Test
+  fun rewritesOnlyConstantGet() {
+    val accessorGet = "$accessorName.get()L$SERVICE;"
+    assertEquals(setOf(serviceName), accessorServices)
+    assertEquals(listOf(accessorGet), calls("constant"))
+    assertEquals(emptyList<Any>(), constants("constant"))
+    assertEquals(listOf(accessorGet), calls("branch"))
+    //非常量class和非get调用保持原样
+    assertEquals(listOf("$SERVICE_MANAGER.get(Ljava/lang/Class;)L$SERVICE;"), calls("dynamic"))
+    assertEquals(listOf<Any>(Type.getObjectType(serviceName)), constants("notGet"))
+  }
+
+  @Test
+  fun rewrittenCallerResolvesThroughCachedSlot() {
+    val service = object : DemoService {}
+    ServiceManager.register(DemoService::class.java, service)
+    val loader = DefiningClassLoader(
+      mapOf(
+        callerName.replace('/', '.') to rewritten,
+        accessorName.replace('/', '.') to
+            ServiceGetRewriteClassVisitor.generateAccessor(serviceName)
+      )
+    )
+    val caller = loader.loadClass(Caller::class.java.name)
+    assertSame(loader, caller.classLoader)
+
+    assertSame(service, caller.getMethod("constant").invoke(null))
+    assertSame(service, caller.getMethod("constant").invoke(null))
+    assertEquals("found", caller.getMethod("branch", Boolean::class.java).invoke(null, true))
+    assertEquals("missing", caller.getMethod("branch", Boolean::class.java).invoke(null, false))
+    //slot只在accessor首次调用时查找一次
+    assertEquals(1, ServiceManager.sSlotOfCount)
+    assertEquals(0, ServiceManager.sGetByClassCount)
+
+    val dynamic = caller.getMethod("dynamic", Class::class.java)
+    assertSame(service, dynamic.invoke(null, DemoService::class.java))
+    assertEquals(1, ServiceManager.sGetByClassCount)
+  }
+
+  /**
+   * 优先自己定义给定的类，其余委托给测试的ClassLoader
+   */
+  private class DefiningClassLoader(private val classes: Map<String, ByteArray>) :
+    ClassLoader(ServiceGetRewriteTest::class.java.classLoader) {
+
+    override fun loadClass(name: String, resolve: Boolean): Class<*> {
+      val bytes = classes[name] ?: return super.loadClass(name, resolve)
+      synchronized(getClassLoadingLock(name)) {
+        return findLoadedClass(name) ?: defineClass(name, bytes, 0, bytes.size)
+      }
+    }
+  }
+
+  companion object {
+    private const val SERVICE_MANAGER = "com/kuaishou/commercial/utility/ioc/ServiceManager"
+    private const val SERVICE = "com/kuaishou/commercial/utility/ioc/interfaces/Service"
+  }
+}
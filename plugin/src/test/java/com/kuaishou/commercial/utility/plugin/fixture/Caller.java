@@ -0,0 +1,29 @@
+package com.kuaishou.commercial.utility.plugin.fixture;
+
+import com.kuaishou.commercial.utility.ioc.ServiceManager;
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+/**
+ * 被ServiceGetRewriteClassVisitor改写的调用方
+ */
+public class Caller {
+
+  public static DemoService constant() {
+    return ServiceManager.get(DemoService.class);
+  }
+
+  public static Service dynamic(Class<? extends Service> serviceClass) {
+    return ServiceManager.get(serviceClass);
+  }
+
+  // 改写发生在分支内，分支合并处的栈帧需保持有效
+  public static String branch(boolean enabled) {
+    DemoService service = enabled ? ServiceManager.get(DemoService.class) : null;
+    return service != null ? "found" : "missing";
+  }
+
+  // 常量class后面不是ServiceManager.get时保持原样
+  public static String notGet() {
+    return String.valueOf(DemoService.class);
+  }
+}
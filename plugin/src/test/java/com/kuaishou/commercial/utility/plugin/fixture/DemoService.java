@@ -0,0 +1,6 @@
+package com.kuaishou.commercial.utility.plugin.fixture;
+
+import com.kuaishou.commercial.utility.ioc.interfaces.Service;
+
+public interface DemoService extends Service {
+}